@@ -8,13 +8,20 @@ import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
 
 import edu.utexas.ece.mpc.context.group.GroupDefinition;
 import edu.utexas.ece.mpc.context.logger.ContextLoggingDelegate;
 import edu.utexas.ece.mpc.context.logger.NullContextLogger;
+import edu.utexas.ece.mpc.context.summary.BloomierContextSummary;
 import edu.utexas.ece.mpc.context.summary.ContextSummary;
 import edu.utexas.ece.mpc.context.summary.GroupContextSummary;
+import edu.utexas.ece.mpc.context.summary.HashMapContextSummary;
 import edu.utexas.ece.mpc.context.summary.HashMapGroupContextSummary;
 import edu.utexas.ece.mpc.context.summary.WireContextSummary;
 
@@ -28,6 +35,8 @@ public class ContextHandler {
     private static ContextHandler singleton;
 
     private WireContextSummary myContext;
+    private CompletableFuture<? extends WireContextSummary> pendingLocalSummary;
+    private Executor summaryBuildExecutor = ForkJoinPool.commonPool();
     private Map<Integer, GroupContextSummary> groupContext = new ConcurrentHashMap<Integer, GroupContextSummary>();
     private Map<Integer, WireContextSummary> receivedSummaries = new ConcurrentHashMap<Integer, WireContextSummary>();
 
@@ -62,7 +71,57 @@ public class ContextHandler {
     }
 
     public synchronized void updateLocalSummary(ContextSummary summary) {
-        myContext = summary.getWireCopy();
+        cancelPendingLocalSummary();
+        setLocalSummary(summary.getWireCopy());
+    }
+
+    // Builds the wire summary on the summary build executor rather than under the handler's lock;
+    // the current local summary keeps being served until the new one replaces it. A later update
+    // or removal cancels a build that hasn't finished. The returned future completes once the new
+    // summary is in place (or has been superseded).
+    public synchronized CompletableFuture<? extends WireContextSummary> updateLocalSummaryAsync(ContextSummary summary) {
+        cancelPendingLocalSummary();
+
+        final CompletableFuture<? extends WireContextSummary> build;
+        if (summary instanceof HashMapContextSummary) {
+            build = ((HashMapContextSummary) summary).getWireCopyAsync(summaryBuildExecutor);
+        } else {
+            build = CompletableFuture.completedFuture(summary.getWireCopy());
+        }
+
+        pendingLocalSummary = build;
+        return build.whenComplete(new BiConsumer<WireContextSummary, Throwable>() {
+
+            @Override
+            public void accept(WireContextSummary wireSummary, Throwable failure) {
+                if (failure == null) {
+                    installLocalSummary(build, wireSummary);
+                } else if (!(failure instanceof CancellationException)) {
+                    logError("Could not build local summary: " + failure);
+                }
+            }
+        });
+    }
+
+    private synchronized void installLocalSummary(CompletableFuture<?> build,
+                                                  WireContextSummary wireSummary) {
+        if (build != pendingLocalSummary) {
+            return; // Superseded while it was being built
+        }
+
+        pendingLocalSummary = null;
+        setLocalSummary(wireSummary);
+    }
+
+    private void cancelPendingLocalSummary() {
+        if (pendingLocalSummary != null) {
+            pendingLocalSummary.cancel(true);
+            pendingLocalSummary = null;
+        }
+    }
+
+    private void setLocalSummary(WireContextSummary wireSummary) {
+        myContext = wireSummary;
 
         for (GroupDefinition groupDefinition: groupDefinitions.values()) {
             int gId = groupDefinition.getId();
@@ -73,6 +132,7 @@ public class ContextHandler {
     }
 
     public synchronized void removeLocalSummary() {
+        cancelPendingLocalSummary();
         logDbg("Removing local summary: " + myContext);
         myContext = null;
     }
@@ -103,6 +163,11 @@ public class ContextHandler {
                 }
             }
 
+            // Only summaries that are kept need their own copy of the received table
+            if (summary instanceof BloomierContextSummary) {
+                ((BloomierContextSummary) summary).retain();
+            }
+
             summariesToPut.add(summary);
             logDbg("Marking  summary for add/update: " + summary);
         }
@@ -203,6 +268,7 @@ public class ContextHandler {
     }
 
     public synchronized void resetAllSummaryData() {
+        cancelPendingLocalSummary();
         myContext = null;
         groupContext.clear();
         receivedSummaries.clear();
@@ -255,6 +321,10 @@ public class ContextHandler {
         }
     }
 
+    public synchronized void setSummaryBuildExecutor(Executor executor) {
+        summaryBuildExecutor = executor;
+    }
+
     public synchronized WireSummaryType getWireSummaryType() {
         return wireSummaryType;
     }
@@ -4,7 +4,25 @@ import java.nio.ByteBuffer;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.serialize.IntSerializer;
 
+import edu.utexas.ece.mpc.bloomier.BinaryFuseRetrieval;
+import edu.utexas.ece.mpc.bloomier.DictionaryBloomierFilter;
+import edu.utexas.ece.mpc.bloomier.ImmutableBloomierFilter;
+import edu.utexas.ece.mpc.bloomier.IntBloomierFilter;
+import edu.utexas.ece.mpc.bloomier.RetrievalEngines;
+import edu.utexas.ece.mpc.bloomier.RetrievalStructure;
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.hash.HashFamily;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.ByteBufferPackedTable;
+import edu.utexas.ece.mpc.bloomier.internal.DictionaryValueCodec;
+import edu.utexas.ece.mpc.bloomier.internal.IntValueCodec;
+import edu.utexas.ece.mpc.bloomier.internal.OverflowStash;
+import edu.utexas.ece.mpc.bloomier.internal.PackedTable;
+import edu.utexas.ece.mpc.bloomier.internal.ValueCodec;
 import edu.utexas.ece.mpc.context.ContextHandler;
 import edu.utexas.ece.mpc.context.summary.BloomierContextSummary;
 
@@ -18,6 +36,7 @@ public class BloomierContextSummarySerializer extends Serializer {
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public void writeObjectData(ByteBuffer buffer, Object object) {
         BloomierContextSummary summary;
         try {
@@ -29,31 +48,72 @@ public class BloomierContextSummarySerializer extends Serializer {
             return;
         }
 
-        int k = summary.getK();
-        int q = summary.getQ();
-
-        long hashSeed = summary.getHashSeed();
-
-        byte[][] table = summary.getTable();
-        int tableDimension1 = table.length;
-        int tableDimension2 = tableDimension1 > 0 ? table[0].length : 0;
-
         int id = summary.getId();
         int hops = summary.getHops();
         long timestamp = summary.getTimestamp();
 
-        kryo.writeObjectData(buffer, k);
-        kryo.writeObjectData(buffer, q);
-        kryo.writeObjectData(buffer, hashSeed);
+        // Receivers decode with the codec the engine implies, so others can't be sent
+        checkCodec(summary.getFilter());
 
-        // Kryo's ArraySerializer isn't as efficient as the following (even using all possible tuning)
-        kryo.writeObjectData(buffer, tableDimension1);
-        kryo.writeObjectData(buffer, tableDimension2);
-        for (byte[] subArray: table) {
-            for (byte element: subArray) {
-                kryo.writeObjectData(buffer, element);
-            }
+        // The engine goes first, as it decides which parameters follow
+        int engineId = summary.getEngineId();
+        kryo.writeObjectData(buffer, engineId);
+        kryo.writeObjectData(buffer, summary.isTrustedKeySet());
+
+        switch (engineId) {
+            case RetrievalEngines.BLOOMIER:
+            case RetrievalEngines.BLOOMIER_DICTIONARY:
+                ImmutableBloomierFilter<String, Integer> bloomier;
+                bloomier = (ImmutableBloomierFilter<String, Integer>) summary.getFilter();
+                kryo.writeObjectData(buffer, bloomier.getK());
+                kryo.writeObjectData(buffer, bloomier.getQ());
+                if (engineId == RetrievalEngines.BLOOMIER) {
+                    // Dictionary filters derive theirs from q and the dictionary
+                    kryo.writeObjectData(buffer, bloomier.getFingerprintBits());
+                }
+                kryo.writeObjectData(buffer, bloomier.getHashFamily().getId());
+                kryo.writeObjectData(buffer, bloomier.getKeyFunnel().getId());
+                kryo.writeObjectData(buffer, bloomier.getHashSeed());
+
+                // The dictionary goes out once, ahead of the table whose entries index it
+                if (engineId == RetrievalEngines.BLOOMIER_DICTIONARY) {
+                    int[] dictionary;
+                    dictionary = ((DictionaryBloomierFilter<String>) bloomier).getDictionary();
+                    kryo.writeObjectData(buffer, dictionary.length);
+                    for (int value: dictionary) {
+                        kryo.writeObjectData(buffer, value);
+                    }
+                }
+
+                // Keys the builder stashed rather than reseeding for, as (id, value) pairs
+                OverflowStash<Integer> stash = bloomier.getStash();
+                kryo.writeObjectData(buffer, stash.size());
+                for (int i = 0; i < stash.size(); i++) {
+                    kryo.writeObjectData(buffer, stash.getId(i));
+                    kryo.writeObjectData(buffer, stash.getValue(i));
+                }
+
+                // The table goes out as the packed bit string (m entries of exactly q bits), whose
+                // length follows from m and q
+                kryo.writeObjectData(buffer, bloomier.getM());
+                break;
+            case RetrievalEngines.BINARY_FUSE:
+                BinaryFuseRetrieval<String, Integer> fuse;
+                fuse = (BinaryFuseRetrieval<String, Integer>) summary.getFilter();
+                kryo.writeObjectData(buffer, fuse.getQ());
+                kryo.writeObjectData(buffer, fuse.getKeyFunnel().getId());
+                kryo.writeObjectData(buffer, fuse.getHashSeed());
+
+                // m follows from the layout
+                kryo.writeObjectData(buffer, fuse.getSegmentLength());
+                kryo.writeObjectData(buffer, fuse.getSegmentCount());
+                break;
+            default:
+                contextHandler.logError("Ignoring request to write context summary with unknown engine: "
+                                        + summary);
+                return;
         }
+        buffer.put(summary.getTable());
 
         kryo.writeObjectData(buffer, id);
         kryo.writeObjectData(buffer, hops);
@@ -64,28 +124,88 @@ public class BloomierContextSummarySerializer extends Serializer {
     public <T> T readObjectData(ByteBuffer buffer, Class<T> type) {
         int bufferStart = buffer.position();
 
-        int k = kryo.readObjectData(buffer, int.class);
-        int q = kryo.readObjectData(buffer, int.class);
+        RetrievalStructure<String, Integer> filter;
+        int engineId = kryo.readObjectData(buffer, int.class);
+        boolean trustedKeySet = kryo.readObjectData(buffer, boolean.class);
+        switch (engineId) {
+            case RetrievalEngines.BLOOMIER: {
+                int k = kryo.readObjectData(buffer, int.class);
+                int q = kryo.readObjectData(buffer, int.class);
+                int fingerprintBits = kryo.readObjectData(buffer, int.class);
 
-        long hashSeed = kryo.readObjectData(buffer, long.class);
+                HashFamily hashFamily = HashFamilies.forId(kryo.readObjectData(buffer, int.class));
+                KeyFunnel<? super String> keyFunnel = stringFunnel(kryo.readObjectData(buffer,
+                                                                                      int.class));
+                long hashSeed = kryo.readObjectData(buffer, long.class);
+                OverflowStash<Integer> stash = readStash(buffer);
 
-        int tableDimension1 = kryo.readObjectData(buffer, int.class);
-        int tableDimension2 = kryo.readObjectData(buffer, int.class);
-        byte[][] table = new byte[tableDimension1][tableDimension2];
-        for (int i = 0; i < tableDimension1; i++) {
-            for (int j = 0; j < tableDimension2; j++) {
-                table[i][j] = kryo.readObjectData(buffer, byte.class);
+                int m = kryo.readObjectData(buffer, int.class);
+                BloomierHasher<String> hasher = new BloomierHasher<String>(hashFamily, keyFunnel,
+                                                                           hashSeed, m, k, q);
+                PackedTable table = ByteBufferPackedTable.slice(buffer, m, q);
+                if (fingerprintBits == 0) {
+                    filter = new IntBloomierFilter<String>(hasher, table, stash);
+                } else {
+                    filter = new ImmutableBloomierFilter<String, Integer>(IntValueCodec.INSTANCE,
+                                                                          hasher, table,
+                                                                          fingerprintBits, stash);
+                }
+                skip(buffer, m, q);
+                break;
             }
-        }
+            case RetrievalEngines.BLOOMIER_DICTIONARY: {
+                int k = kryo.readObjectData(buffer, int.class);
+                int q = kryo.readObjectData(buffer, int.class);
+
+                HashFamily hashFamily = HashFamilies.forId(kryo.readObjectData(buffer, int.class));
+                KeyFunnel<? super String> keyFunnel = stringFunnel(kryo.readObjectData(buffer,
+                                                                                      int.class));
+                long hashSeed = kryo.readObjectData(buffer, long.class);
+
+                int[] dictionary = new int[kryo.readObjectData(buffer, int.class)];
+                for (int i = 0; i < dictionary.length; i++) {
+                    dictionary[i] = kryo.readObjectData(buffer, int.class);
+                }
+                OverflowStash<Integer> stash = readStash(buffer);
 
-        int m = table.length;
+                int m = kryo.readObjectData(buffer, int.class);
+                BloomierHasher<String> hasher = new BloomierHasher<String>(hashFamily, keyFunnel,
+                                                                           hashSeed, m, k, q);
+                DictionaryValueCodec codec = new DictionaryValueCodec(dictionary);
+                filter = new DictionaryBloomierFilter<String>(codec, hasher,
+                                                              ByteBufferPackedTable.slice(buffer,
+                                                                                          m, q),
+                                                              stash);
+                skip(buffer, m, q);
+                break;
+            }
+            case RetrievalEngines.BINARY_FUSE: {
+                int q = kryo.readObjectData(buffer, int.class);
+                KeyFunnel<? super String> keyFunnel = stringFunnel(kryo.readObjectData(buffer,
+                                                                                      int.class));
+                long hashSeed = kryo.readObjectData(buffer, long.class);
+
+                int segmentLength = kryo.readObjectData(buffer, int.class);
+                int segmentCount = kryo.readObjectData(buffer, int.class);
+                filter = new BinaryFuseRetrieval<String, Integer>(q, IntValueCodec.INSTANCE,
+                                                                  keyFunnel, hashSeed,
+                                                                  segmentLength, segmentCount,
+                                                                  buffer);
+                skip(buffer, filter.getM(), q);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown retrieval engine id: " + engineId);
+        }
 
         int id = kryo.readObjectData(buffer, int.class);
         int hops = kryo.readObjectData(buffer, int.class);
         long timestamp = kryo.readObjectData(buffer, long.class);
 
+        // The table is left in the buffer; ContextHandler retains the summaries it keeps
         @SuppressWarnings("unchecked")
-        T summary = (T) new BloomierContextSummary(m, k, q, hashSeed, table, id, hops, timestamp);
+        T summary = (T) BloomierContextSummary.view(filter, id, hops, timestamp,
+                                                            trustedKeySet);
 
         int summarySize = buffer.position() - bufferStart;
         contextHandler.logDbg(String.format("Decoded context summary (size=%d): %s", summarySize,
@@ -94,4 +214,63 @@ public class BloomierContextSummarySerializer extends Serializer {
         return summary;
     }
 
+    private static void checkCodec(RetrievalStructure<String, Integer> filter) {
+        ValueCodec<Integer> codec;
+        switch (filter.getEngineId()) {
+            case RetrievalEngines.BLOOMIER:
+                codec = ((ImmutableBloomierFilter<String, Integer>) filter).getCodec();
+                break;
+            case RetrievalEngines.BLOOMIER_DICTIONARY:
+                return; // always a DictionaryValueCodec, which goes out with the summary
+            case RetrievalEngines.BINARY_FUSE:
+                codec = ((BinaryFuseRetrieval<String, Integer>) filter).getCodec();
+                break;
+            default:
+                return; // reported by writeObjectData
+        }
+        if (codec != IntValueCodec.INSTANCE) {
+            throw new IllegalArgumentException("Can't send a "
+                                               + RetrievalEngines.getName(filter.getEngineId())
+                                               + " summary with value codec "
+                                               + codec.getClass().getSimpleName());
+        }
+    }
+
+    private OverflowStash<Integer> readStash(ByteBuffer buffer) {
+        int size = kryo.readObjectData(buffer, int.class);
+        long[] ids = new long[size];
+        Integer[] values = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = kryo.readObjectData(buffer, long.class);
+            values[i] = kryo.readObjectData(buffer, int.class);
+        }
+        return OverflowStash.of(ids, values, size);
+    }
+
+    // Summary keys are strings, so only funnels taking strings make sense
+    private static KeyFunnel<? super String> stringFunnel(int id) {
+        KeyFunnel<?> funnel = KeyFunnels.forId(id);
+        if (funnel != KeyFunnels.STRING && funnel != KeyFunnels.HASH_CODE) {
+            throw new IllegalArgumentException("Key funnel can't hash context names: "
+                                               + funnel.getName());
+        }
+
+        @SuppressWarnings("unchecked")
+        KeyFunnel<? super String> stringFunnel = (KeyFunnel<? super String>) funnel;
+        return stringFunnel;
+    }
+
+    // Bytes a value dictionary takes on the wire (its length, then each value)
+    public static int getDictionaryLength(int[] dictionary) {
+        int length = IntSerializer.length(dictionary.length, true);
+        for (int value: dictionary) {
+            length += IntSerializer.length(value, true);
+        }
+        return length;
+    }
+
+    // Moves past a table of m entries of q bits
+    private static void skip(ByteBuffer buffer, int m, int q) {
+        buffer.position(buffer.position() + ImmutableBloomierFilter.getFlatTableLength(m, q));
+    }
 }
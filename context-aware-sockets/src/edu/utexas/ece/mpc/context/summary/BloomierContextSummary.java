@@ -1,42 +1,276 @@
 package edu.utexas.ece.mpc.context.summary;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import edu.utexas.ece.mpc.bloomier.BinaryFuseRetrieval;
+import edu.utexas.ece.mpc.bloomier.BloomierBuildFuture;
+import edu.utexas.ece.mpc.bloomier.BloomierParameters;
+import edu.utexas.ece.mpc.bloomier.DictionaryBloomierBuilder;
+import edu.utexas.ece.mpc.bloomier.DictionaryBloomierFilter;
 import edu.utexas.ece.mpc.bloomier.ImmutableBloomierFilter;
+import edu.utexas.ece.mpc.bloomier.IntBloomierBuilder;
+import edu.utexas.ece.mpc.bloomier.IntBloomierFilter;
+import edu.utexas.ece.mpc.bloomier.RetrievalEngines;
+import edu.utexas.ece.mpc.bloomier.RetrievalStructure;
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.hash.HashFamily;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+import edu.utexas.ece.mpc.bloomier.internal.BitPackedTable;
+import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.DictionaryValueCodec;
+import edu.utexas.ece.mpc.bloomier.internal.IntValueCodec;
+import edu.utexas.ece.mpc.bloomier.internal.OverflowStash;
+import edu.utexas.ece.mpc.context.serializer.BloomierContextSummarySerializer;
 
 public class BloomierContextSummary implements WireContextSummary {
-    private ImmutableBloomierFilter<String, Integer> filter;
+    // q = 41, as summaries have always used
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 1.0 / (1 << 9);
+
+    // Keys a summary built with a builder may stash rather than search for another hash seed; a
+    // stashed key costs 12 bytes or so on the wire
+    public static final int MAX_STASH_SIZE = 16;
+
+    // Bloomier summaries hash whole keys, so context names with colliding hash codes still build
+    public static final KeyFunnel<CharSequence> KEY_FUNNEL = KeyFunnels.STRING;
+
+    // Runs in place builds on the calling thread
+    private static final Executor IN_PLACE = new Executor() {
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    // Decoded summaries start out as views over the received packet (see retain())
+    private volatile RetrievalStructure<String, Integer> filter;
+    private volatile boolean isView;
+
+    // Set by the sender when receivers only ask for keys it put in; see isTrustedKeySet()
+    private final boolean trustedKeySet;
 
     private final int id;
     private int hops;
     private final long timestamp;
 
-    public BloomierContextSummary(int m, int k, int q, long hashSeed, byte[][] table, int id,
-                                  int hops, long timestamp) {
-        this.filter = new ImmutableBloomierFilter<String, Integer>(m, k, q, Integer.class,
-                                                                   hashSeed, table);
+    // An int engine table whose keys were hashed with KEY_FUNNEL, like every other summary's
+    public BloomierContextSummary(int m, int k, int q, HashFamily hashFamily, long hashSeed,
+                                  byte[] table, int id, int hops, long timestamp) {
+        this(new IntBloomierFilter<String>(new BloomierHasher<String>(hashFamily, KEY_FUNNEL,
+                                                                      hashSeed, m, k, q),
+                                           new BitPackedTable(m, q, table),
+                                           OverflowStash.<Integer> empty()), id, hops, timestamp);
+    }
+
+    public BloomierContextSummary(RetrievalStructure<String, Integer> filter, int id, int hops,
+                                  long timestamp) {
+        this(filter, id, hops, timestamp, false);
+    }
+
+    public BloomierContextSummary(RetrievalStructure<String, Integer> filter, int id, int hops,
+                                  long timestamp, boolean trustedKeySet) {
+        this.filter = filter;
+        this.trustedKeySet = trustedKeySet;
 
         this.id = id;
         this.hops = hops;
         this.timestamp = timestamp;
     }
 
+    // A summary whose filter reads its table out of a buffer that may be reused once the summary
+    // has been handled; the table is only copied out if the summary is retained
+    public static BloomierContextSummary view(RetrievalStructure<String, Integer> filter, int id,
+                                              int hops, long timestamp, boolean trustedKeySet) {
+        BloomierContextSummary summary = new BloomierContextSummary(filter, id, hops, timestamp,
+                                                                    trustedKeySet);
+        summary.isView = true;
+        return summary;
+    }
+
     public BloomierContextSummary(HashMapContextSummary other, long hashSeedHint) {
-        // FIXME: make these calculations tunable (get rid of 'magic')
-        int m = Math.max(1, (int) (other.keySet().size() * 1.20)); // make m 20% bigger than map size
-        int k = (m < 40) ? 2 : 3; // FIXME: found through manual tweaking - need better way to do this
-        // int k = Math.min(3, Math.max(1, (int) (m * 0.03))); // make k 3% of m (but at least 1) TODO: limiting to
-        // three seems to be best as well - investigate this
-        int q = (int) (Integer.SIZE * 1.30); // make q 30% bigger than the Integers being stored
-        
-        filter = new ImmutableBloomierFilter<String, Integer>(other, m, k, q, Integer.class,
-                                                              hashSeedHint);
+        this(other, hashSeedHint, RetrievalEngines.BLOOMIER);
+    }
+
+    public BloomierContextSummary(HashMapContextSummary other, long hashSeedHint, int engineId) {
+        this(other, hashSeedHint, engineId, DEFAULT_FALSE_POSITIVE_RATE,
+             BloomierParameters.DEFAULT_EXPECTED_ATTEMPTS);
+    }
+
+    // engineId is one of the RetrievalEngines ids; the false positive rate and attempt budget are as
+    // for BloomierParameters.plan (the binary fuse engine sizes its own table). The bloomier engine
+    // switches to a value dictionary by itself when that makes the summary smaller. Trusted key
+    // sets ignore the false positive rate and get no check bits at all.
+    public BloomierContextSummary(HashMapContextSummary other, long hashSeedHint, int engineId,
+                                  double falsePositiveRate, double maxExpectedAttempts) {
+        falsePositiveRate = falsePositiveRate(other, falsePositiveRate);
+        BloomierParameters parameters = BloomierParameters.plan(other.keySet().size(),
+                                                                Integer.SIZE, falsePositiveRate,
+                                                                maxExpectedAttempts);
 
+        switch (engineId) {
+            case RetrievalEngines.BLOOMIER:
+            case RetrievalEngines.BLOOMIER_DICTIONARY:
+                DictionaryValueCodec dictionary = DictionaryValueCodec.forValues(other.values());
+                BloomierParameters dictionaryParameters;
+                dictionaryParameters = planDictionary(dictionary, parameters, falsePositiveRate,
+                                                      maxExpectedAttempts,
+                                                      engineId == RetrievalEngines.BLOOMIER);
+                if (dictionaryParameters != null) {
+                    filter = new DictionaryBloomierFilter<String>(other, dictionaryParameters,
+                                                                  dictionary, HashFamilies.MURMUR3,
+                                                                  KEY_FUNNEL, hashSeedHint);
+                } else {
+                    filter = new IntBloomierFilter<String>(other, parameters,
+                                                           HashFamilies.MURMUR3, KEY_FUNNEL,
+                                                           hashSeedHint);
+                }
+                break;
+            case RetrievalEngines.BINARY_FUSE:
+                try {
+                    filter = new BinaryFuseRetrieval<String, Integer>(other, parameters.getQ(),
+                                                                      IntValueCodec.INSTANCE,
+                                                                      KEY_FUNNEL,
+                                                                      Integer.MAX_VALUE,
+                                                                      hashSeedHint);
+                } catch (TimeoutException e) {
+                    throw new AssertionError("Should never be possible");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown retrieval engine id: " + engineId);
+        }
+
+        trustedKeySet = other.isTrustedKeySet();
         id = other.getId();
         hops = 0;
         timestamp = System.nanoTime();
     }
 
+    // A bloomier summary built with builder, whose work space is reused from one build to the next
+    public BloomierContextSummary(HashMapContextSummary other, long hashSeedHint,
+                                  IntBloomierBuilder<String> builder) {
+        this(builder.build(other,
+                           BloomierParameters.plan(other.size(), Integer.SIZE,
+                                                   falsePositiveRate(other,
+                                                                     DEFAULT_FALSE_POSITIVE_RATE)),
+                           hashSeedHint), other.getId(), 0, System.nanoTime(),
+             other.isTrustedKeySet());
+    }
+
+    // As above, but built with dictionaryBuilder instead when a value dictionary makes the summary
+    // smaller
+    public BloomierContextSummary(HashMapContextSummary other, long hashSeedHint,
+                                  IntBloomierBuilder<String> builder,
+                                  DictionaryBloomierBuilder<String> dictionaryBuilder) {
+        this(getBuilt(build(other, hashSeedHint, builder, dictionaryBuilder, IN_PLACE)),
+             other.getId(), 0, System.nanoTime(), other.isTrustedKeySet());
+    }
+
+    // Summaries built with a pair of builders, whether in place or asynchronously, are all built
+    // here: with builder, or with dictionaryBuilder when a value dictionary makes the summary
+    // smaller. Cancelling the returned future stops the seed search.
+    private static BloomierBuildFuture<ImmutableBloomierFilter<String, Integer>> build(
+            HashMapContextSummary other, long hashSeedHint, IntBloomierBuilder<String> builder,
+            DictionaryBloomierBuilder<String> dictionaryBuilder, Executor executor) {
+        double falsePositiveRate = falsePositiveRate(other, DEFAULT_FALSE_POSITIVE_RATE);
+        BloomierParameters parameters = BloomierParameters.plan(other.size(), Integer.SIZE,
+                                                                falsePositiveRate);
+        BloomierParameters dictionaryParameters;
+        dictionaryParameters = planDictionary(DictionaryValueCodec.forValues(other.values()),
+                                              parameters, falsePositiveRate,
+                                              BloomierParameters.DEFAULT_EXPECTED_ATTEMPTS, true);
+        if (dictionaryParameters != null) {
+            return dictionaryBuilder.buildAsync(other, dictionaryParameters, hashSeedHint,
+                                                executor);
+        }
+        return builder.buildAsync(other, parameters, hashSeedHint, executor);
+    }
+
+    // The result of a build run IN_PLACE, which fails with whatever the build threw
+    private static <T> T getBuilt(CompletableFuture<T> build) {
+        try {
+            return build.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    // Dictionary summaries carry each distinct value once, but their slots only hold its index
+    // (plus the same check bits). Returns the plan for one, or null if onlyIfSmaller and it
+    // wouldn't be smaller on the wire than the plan for full ints.
+    private static BloomierParameters planDictionary(DictionaryValueCodec dictionary,
+                                                     BloomierParameters parameters,
+                                                     double falsePositiveRate,
+                                                     double maxExpectedAttempts,
+                                                     boolean onlyIfSmaller) {
+        BloomierParameters dictionaryParameters;
+        dictionaryParameters = BloomierParameters.plan(parameters.getKeyCount(),
+                                                       dictionary.getIndexBits(),
+                                                       falsePositiveRate, maxExpectedAttempts);
+        int[] values = dictionary.getDictionary();
+        int dictionaryBytes = dictionaryParameters.getTableBytes()
+                              + BloomierContextSummarySerializer.getDictionaryLength(values);
+        if (onlyIfSmaller && dictionaryBytes >= parameters.getTableBytes()) {
+            return null;
+        }
+        return dictionaryParameters;
+    }
+
+    // Trusted key sets drop the check bits altogether (see HashMapContextSummary.setTrustedKeySet)
+    private static double falsePositiveRate(HashMapContextSummary other, double falsePositiveRate) {
+        return other.isTrustedKeySet() ? BloomierParameters.RETRIEVAL_ONLY : falsePositiveRate;
+    }
+
+    // Builds a bloomier summary of a snapshot of other (taken now) on the executor with the same
+    // builders as the in place constructor, updating other's hash seed hint once done. Cancelling
+    // the returned future stops the seed search.
+    public static CompletableFuture<BloomierContextSummary> buildAsync(
+            final HashMapContextSummary other, long hashSeedHint,
+            IntBloomierBuilder<String> builder, DictionaryBloomierBuilder<String> dictionaryBuilder,
+            Executor executor) {
+        final HashMapContextSummary snapshot = new HashMapContextSummary(other);
+        final BloomierBuildFuture<ImmutableBloomierFilter<String, Integer>> build;
+        build = build(snapshot, hashSeedHint, builder, dictionaryBuilder, executor);
+
+        final CompletableFuture<BloomierContextSummary> summary;
+        summary = build.thenApply(new Function<ImmutableBloomierFilter<String, Integer>, BloomierContextSummary>() {
+
+            @Override
+            public BloomierContextSummary apply(ImmutableBloomierFilter<String, Integer> filter) {
+                other.setHashSeedHint(filter.getHashSeed());
+                return new BloomierContextSummary(filter, other.getId(), 0, System.nanoTime(),
+                                                  snapshot.isTrustedKeySet());
+            }
+        });
+        summary.whenComplete(new BiConsumer<BloomierContextSummary, Throwable>() {
+
+            @Override
+            public void accept(BloomierContextSummary result, Throwable failure) {
+                if (summary.isCancelled()) {
+                    build.cancel(true);
+                }
+            }
+        });
+        return summary;
+    }
+
     public BloomierContextSummary(BloomierContextSummary other) {
-        filter = new ImmutableBloomierFilter<String, Integer>(other.filter);
+        filter = other.filter; // filters are immutable and safe to share between threads
+        isView = other.isView;
+        trustedKeySet = other.trustedKeySet;
 
         id = other.id;
         hops = other.hops;
@@ -45,9 +279,78 @@ public class BloomierContextSummary implements WireContextSummary {
 
     @Override
     public String toString() {
-        return String.format("BloomierContextSummary with id=%d m=%d k=%d q=%d hashSeed=%d timestamp=%d hops=%d",
-                             id, filter.getM(), filter.getK(), filter.getQ(), filter.getHashSeed(),
-                             timestamp, hops);
+        return String.format("BloomierContextSummary with id=%d engine=%s m=%d q=%d hashSeed=%d timestamp=%d hops=%d",
+                             id, RetrievalEngines.getName(filter.getEngineId()), filter.getM(),
+                             filter.getQ(), filter.getHashSeed(), timestamp, hops);
+    }
+
+    // Copies a view's table out of the buffer it was decoded from (once), so the summary can be
+    // kept after the buffer is reused
+    public synchronized void retain() {
+        if (!isView) {
+            return;
+        }
+
+        switch (filter.getEngineId()) {
+            case RetrievalEngines.BLOOMIER:
+                ImmutableBloomierFilter<String, Integer> bloomier;
+                bloomier = (ImmutableBloomierFilter<String, Integer>) filter;
+                if (bloomier instanceof IntBloomierFilter) {
+                    filter = new IntBloomierFilter<String>(hasher(bloomier), table(bloomier),
+                                                           bloomier.getStash());
+                } else {
+                    // Received with fingerprint bits, which int filters don't take
+                    int fingerprintBits = bloomier.getFingerprintBits();
+                    filter = new ImmutableBloomierFilter<String, Integer>(bloomier.getCodec(),
+                                                                          hasher(bloomier),
+                                                                          table(bloomier),
+                                                                          fingerprintBits,
+                                                                          bloomier.getStash());
+                }
+                break;
+            case RetrievalEngines.BLOOMIER_DICTIONARY:
+                DictionaryBloomierFilter<String> dictionary;
+                dictionary = (DictionaryBloomierFilter<String>) filter;
+                filter = new DictionaryBloomierFilter<String>(dictionary.getDictionaryCodec(),
+                                                              hasher(dictionary),
+                                                              table(dictionary),
+                                                              dictionary.getStash());
+                break;
+            case RetrievalEngines.BINARY_FUSE:
+                BinaryFuseRetrieval<String, Integer> fuse;
+                fuse = (BinaryFuseRetrieval<String, Integer>) filter;
+                filter = new BinaryFuseRetrieval<String, Integer>(fuse.getQ(), fuse.getCodec(),
+                                                                  fuse.getKeyFunnel(),
+                                                                  fuse.getHashSeed(),
+                                                                  fuse.getSegmentLength(),
+                                                                  fuse.getSegmentCount(),
+                                                                  fuse.getFlatTable());
+                break;
+            default:
+                throw new IllegalStateException("Unknown retrieval engine id: "
+                                                + filter.getEngineId());
+        }
+        isView = false;
+    }
+
+    private static BloomierHasher<String> hasher(ImmutableBloomierFilter<String, Integer> view) {
+        return new BloomierHasher<String>(view.getHashFamily(), view.getKeyFunnel(),
+                                          view.getHashSeed(), view.getM(), view.getK(),
+                                          view.getQ());
+    }
+
+    private static BitPackedTable table(ImmutableBloomierFilter<String, Integer> view) {
+        return new BitPackedTable(view.getM(), view.getQ(), view.getFlatTable());
+    }
+
+    public boolean isView() {
+        return isView;
+    }
+
+    // Trusted summaries keep no check bits: get() returns some value for every key, which is only
+    // meaningful for keys the sender put in (e.g. a fixed schema it shares with the receivers)
+    public boolean isTrustedKeySet() {
+        return trustedKeySet;
     }
 
     @Override
@@ -55,12 +358,16 @@ public class BloomierContextSummary implements WireContextSummary {
         return filter.get(key);
     }
 
-    public int getM() {
-        return filter.getM();
+    public RetrievalStructure<String, Integer> getFilter() {
+        return filter;
+    }
+
+    public int getEngineId() {
+        return filter.getEngineId();
     }
 
-    public int getK() {
-        return filter.getK();
+    public int getM() {
+        return filter.getM();
     }
 
     public int getQ() {
@@ -71,8 +378,9 @@ public class BloomierContextSummary implements WireContextSummary {
         return filter.getHashSeed();
     }
 
-    public byte[][] getTable() {
-        return filter.getTable();
+    // The packed table: m entries of exactly q bits
+    public byte[] getTable() {
+        return filter.getFlatTable();
     }
 
     @Override
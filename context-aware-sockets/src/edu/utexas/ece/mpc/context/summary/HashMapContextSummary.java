@@ -5,14 +5,26 @@ import java.net.SocketException;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
+import edu.utexas.ece.mpc.bloomier.DictionaryBloomierBuilder;
+import edu.utexas.ece.mpc.bloomier.IntBloomierBuilder;
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnel;
 import edu.utexas.ece.mpc.context.ContextHandler;
+import edu.utexas.ece.mpc.context.ContextHandler.WireSummaryType;
 
 @SuppressWarnings("serial")
 public class HashMapContextSummary extends HashMap<String, Integer> implements ContextSummary {
 
     protected final int id;
-    protected long hashSeedHint = 0;
+    protected volatile long hashSeedHint = 0; // updated by asynchronous builds
+    protected volatile boolean trustedKeySet;
+
+    // Reused by every bloomier wire copy of this summary; created on first use
+    private transient IntBloomierBuilder<String> builder;
+    private transient DictionaryBloomierBuilder<String> dictionaryBuilder;
 
     public HashMapContextSummary() {
         Enumeration<NetworkInterface> interfaces;
@@ -59,6 +71,7 @@ public class HashMapContextSummary extends HashMap<String, Integer> implements C
 
         this.id = summary.id;
         this.hashSeedHint = summary.hashSeedHint;
+        this.trustedKeySet = summary.trustedKeySet;
     }
 
     public HashMapContextSummary(int id, long hashSeedHint) {
@@ -85,6 +98,17 @@ public class HashMapContextSummary extends HashMap<String, Integer> implements C
         this.hashSeedHint = hashSeedHint;
     }
 
+    public boolean isTrustedKeySet() {
+        return trustedKeySet;
+    }
+
+    // Promises that receivers only ever ask for keys this summary holds (group enumerations, a
+    // fixed schema), so bloomier wire copies can drop their check bits: slots become exactly the
+    // value width, and a key that isn't in the summary gets an arbitrary value instead of null
+    public void setTrustedKeySet(boolean trustedKeySet) {
+        this.trustedKeySet = trustedKeySet;
+    }
+
     @Override
     public String toString() {
         return String.format("HashMapContextSummary with id=%d size=%d", id, size());
@@ -101,7 +125,10 @@ public class HashMapContextSummary extends HashMap<String, Integer> implements C
         ContextHandler handler = ContextHandler.getInstance();
         switch (handler.getWireSummaryType()) {
             case BLOOMIER:
-                BloomierContextSummary bSummary = new BloomierContextSummary(this, hashSeedHint);
+                createBuilders();
+                BloomierContextSummary bSummary = new BloomierContextSummary(this, hashSeedHint,
+                                                                             builder,
+                                                                             dictionaryBuilder);
                 hashSeedHint = bSummary.getHashSeed();
                 summary = bSummary;
                 break;
@@ -111,4 +138,26 @@ public class HashMapContextSummary extends HashMap<String, Integer> implements C
         }
         return summary;
     }
+
+    // As getWireCopy, but a bloomier summary is built on the executor, with the same builders (see
+    // BloomierContextSummary.buildAsync)
+    public CompletableFuture<? extends WireContextSummary> getWireCopyAsync(Executor executor) {
+        if (ContextHandler.getInstance().getWireSummaryType() == WireSummaryType.BLOOMIER) {
+            createBuilders();
+            return BloomierContextSummary.buildAsync(this, hashSeedHint, builder,
+                                                     dictionaryBuilder, executor);
+        }
+        return CompletableFuture.completedFuture(getWireCopy());
+    }
+
+    private void createBuilders() {
+        if (builder == null) {
+            KeyFunnel<CharSequence> keyFunnel = BloomierContextSummary.KEY_FUNNEL;
+            builder = new IntBloomierBuilder<String>(HashFamilies.MURMUR3, keyFunnel);
+            dictionaryBuilder = new DictionaryBloomierBuilder<String>(HashFamilies.MURMUR3,
+                                                                      keyFunnel);
+            builder.setMaxStashSize(BloomierContextSummary.MAX_STASH_SIZE);
+            dictionaryBuilder.setMaxStashSize(BloomierContextSummary.MAX_STASH_SIZE);
+        }
+    }
 }
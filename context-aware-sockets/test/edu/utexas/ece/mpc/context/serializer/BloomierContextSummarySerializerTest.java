@@ -0,0 +1,162 @@
+package edu.utexas.ece.mpc.context.serializer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.esotericsoftware.kryo.Kryo;
+
+import edu.utexas.ece.mpc.bloomier.BloomierBuilder;
+import edu.utexas.ece.mpc.bloomier.DictionaryBloomierBuilder;
+import edu.utexas.ece.mpc.bloomier.ImmutableBloomierFilter;
+import edu.utexas.ece.mpc.bloomier.IntBloomierBuilder;
+import edu.utexas.ece.mpc.bloomier.RetrievalEngines;
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.context.summary.BloomierContextSummary;
+import edu.utexas.ece.mpc.context.summary.HashMapContextSummary;
+
+public class BloomierContextSummarySerializerTest {
+    private static final int[] ENGINES = { RetrievalEngines.BLOOMIER,
+                                          RetrievalEngines.BLOOMIER_DICTIONARY,
+                                          RetrievalEngines.BINARY_FUSE };
+
+    private Kryo kryo;
+    private ByteBuffer buffer;
+
+    @Before
+    public void setUp() {
+        kryo = new Kryo();
+        new BloomierContextSummarySerializer(kryo);
+        buffer = ByteBuffer.allocate(1 << 16);
+    }
+
+    @Test
+    public void engines() {
+        for (int engineId: ENGINES) {
+            HashMapContextSummary map = summary(42, 100, 1000);
+            BloomierContextSummary sent = new BloomierContextSummary(map, 0, engineId);
+            Assert.assertEquals(engineId, sent.getEngineId());
+            BloomierContextSummary received = roundTrip(sent);
+
+            Assert.assertEquals(engineId, received.getEngineId());
+            Assert.assertEquals(sent.getM(), received.getM());
+            Assert.assertEquals(sent.getQ(), received.getQ());
+            Assert.assertEquals(sent.getHashSeed(), received.getHashSeed());
+            Assert.assertEquals(42, received.getId());
+            Assert.assertEquals(sent.getHops(), received.getHops());
+            Assert.assertEquals(sent.getTimestamp(), received.getTimestamp());
+            Assert.assertFalse(received.isTrustedKeySet());
+            assertMembers(map, received);
+            Assert.assertNull(received.get("absent"));
+        }
+    }
+
+    @Test
+    public void trustedKeySet() {
+        for (int engineId: ENGINES) {
+            HashMapContextSummary map = summary(7, 100, 1000);
+            map.setTrustedKeySet(true);
+            BloomierContextSummary received = roundTrip(new BloomierContextSummary(map, 0,
+                                                                                   engineId));
+
+            Assert.assertTrue(received.isTrustedKeySet());
+            assertMembers(map, received);
+        }
+    }
+
+    @Test
+    public void intStash() {
+        HashMapContextSummary map = summary(1, 200, 1000);
+        IntBloomierBuilder<String> builder;
+        builder = new IntBloomierBuilder<String>(HashFamilies.MURMUR3,
+                                                 BloomierContextSummary.KEY_FUNNEL);
+        builder.setMaxStashSize(map.size());
+        ImmutableBloomierFilter<String, Integer> filter = builder.build(map, 210, 3, 41, 0);
+
+        assertStashRoundTrip(map, filter);
+    }
+
+    @Test
+    public void dictionaryStash() {
+        HashMapContextSummary map = summary(1, 200, 5);
+        DictionaryBloomierBuilder<String> builder;
+        builder = new DictionaryBloomierBuilder<String>(HashFamilies.MURMUR3,
+                                                        BloomierContextSummary.KEY_FUNNEL);
+        builder.setMaxStashSize(map.size());
+        ImmutableBloomierFilter<String, Integer> filter = builder.build(map, 210, 3, 12, 0);
+
+        assertStashRoundTrip(map, filter);
+    }
+
+    @Test
+    public void viewAndRetain() {
+        for (int engineId: ENGINES) {
+            HashMapContextSummary map = summary(3, 100, 1000);
+            BloomierContextSummary received = roundTrip(new BloomierContextSummary(map, 0,
+                                                                                   engineId));
+            Assert.assertTrue(received.isView());
+
+            received.retain();
+            Assert.assertFalse(received.isView());
+
+            // A retained summary no longer reads the packet buffer
+            Arrays.fill(buffer.array(), (byte) 0);
+            assertMembers(map, received);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void kryoCodec() throws Exception {
+        HashMapContextSummary map = summary(1, 10, 1000);
+        ImmutableBloomierFilter<String, Integer> filter;
+        filter = new BloomierBuilder<String, Integer>(Integer.class, HashFamilies.MURMUR3,
+                                                      BloomierContextSummary.KEY_FUNNEL)
+                .build(map, 20, 3, 41, 10000, 0);
+
+        kryo.writeObjectData(buffer, new BloomierContextSummary(filter, 1, 0, 0));
+    }
+
+    private void assertStashRoundTrip(Map<String, Integer> map,
+                                      ImmutableBloomierFilter<String, Integer> filter) {
+        Assert.assertTrue(filter.getStash().size() > 0);
+
+        BloomierContextSummary received = roundTrip(new BloomierContextSummary(filter, 1, 0, 0));
+        assertMembers(map, received);
+
+        received.retain();
+        Arrays.fill(buffer.array(), (byte) 0);
+        assertMembers(map, received);
+    }
+
+    // Writes summary, reads it back from the same buffer and checks every byte was consumed
+    private BloomierContextSummary roundTrip(BloomierContextSummary summary) {
+        buffer.clear();
+        kryo.writeObjectData(buffer, summary);
+        int size = buffer.position();
+        buffer.flip();
+
+        BloomierContextSummary received;
+        received = kryo.readObjectData(buffer, BloomierContextSummary.class);
+        Assert.assertEquals(size, buffer.position());
+        return received;
+    }
+
+    private static HashMapContextSummary summary(int id, int size, int distinctValues) {
+        HashMapContextSummary summary = new HashMapContextSummary(id);
+        for (int i = 0; i < size; i++) {
+            // Spread over the whole int range, so distinct values are expensive to list
+            summary.put("key" + i, (i % distinctValues) * 0x01000193);
+        }
+        return summary;
+    }
+
+    private static void assertMembers(Map<String, Integer> map, BloomierContextSummary summary) {
+        for (Map.Entry<String, Integer> entry: map.entrySet()) {
+            Assert.assertEquals(entry.getValue(), summary.get(entry.getKey()));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.HypergraphPeeler;
+
+/**
+ * Produces BloomierParameters.SLOTS_PER_KEY: for each k and each power of two key count, the
+ * fewest slots per key at which a single hash seed peels with each of the
+ * BloomierParameters.SUCCESS_RATES. Prints the table as a Java initializer. It lives in the
+ * library's package to read those package private tables, but is only built with the benchmarks.
+ */
+public class BloomierParametersCalibration {
+    // Success rates are estimated over this many seeds, fewer for big key sets
+    private static final int TRIALS = 400;
+    private static final int MIN_TRIALS = 40;
+
+    private static final int MAX_SLOTS_PER_KEY = 16;
+
+    public static void main(String[] args) {
+        long start = System.nanoTime();
+
+        System.out.println("    private static final double[][][] SLOTS_PER_KEY = {");
+        for (int k = BloomierParameters.MIN_K; k <= BloomierParameters.MAX_K; k++) {
+            System.out.println("        { // k=" + k);
+            for (int logKeys = 0; logKeys <= BloomierParameters.MAX_LOG_KEYS; logKeys++) {
+                int n = 1 << logKeys;
+                int trials = Math.max(MIN_TRIALS, Math.min(TRIALS, (TRIALS << 10) / n));
+                Calibration calibration = new Calibration(n, k, trials);
+
+                StringBuilder row = new StringBuilder("            { ");
+                for (int level = 0; level < BloomierParameters.SUCCESS_RATES.length; level++) {
+                    int m = calibration.fewestSlots(BloomierParameters.SUCCESS_RATES[level]);
+                    // Round up so the table never promises fewer slots than measured
+                    double slotsPerKey = Math.ceil((double) m / n * 1000) / 1000;
+                    row.append(String.format("%.3f", slotsPerKey));
+                    row.append(level + 1 < BloomierParameters.SUCCESS_RATES.length ? ", " : " }");
+                }
+                row.append(logKeys < BloomierParameters.MAX_LOG_KEYS ? ", " : "  ");
+                row.append("// n=" + n);
+                System.out.println(row);
+            }
+            System.out.println(k < BloomierParameters.MAX_K ? "        }," : "        }");
+        }
+        System.out.println("    };");
+
+        System.out.printf("// calibrated in %.0f s%n", (System.nanoTime() - start) / 1e9);
+    }
+
+    private static class Calibration {
+        private final int n;
+        private final int k;
+        private final int trials;
+        private final List<Integer> keys = new ArrayList<Integer>();
+        private final Map<Integer, Double> successRates = new HashMap<Integer, Double>();
+
+        Calibration(int n, int k, int trials) {
+            this.n = n;
+            this.k = k;
+            this.trials = trials;
+            for (int i = 0; i < n; i++) {
+                keys.add(i);
+            }
+        }
+
+        // Binary search, relying on the success rate growing with m
+        int fewestSlots(double successRate) {
+            int low = 1;
+            int high = n * MAX_SLOTS_PER_KEY;
+            while (low < high) {
+                int m = (low + high) >>> 1;
+                if (getSuccessRate(m) >= successRate) {
+                    high = m;
+                } else {
+                    low = m + 1;
+                }
+            }
+            return low;
+        }
+
+        double getSuccessRate(int m) {
+            Double cached = successRates.get(m);
+            if (cached != null) {
+                return cached;
+            }
+
+            HypergraphPeeler<Integer> peeler = new HypergraphPeeler<Integer>(m, k);
+            int successes = 0;
+            for (int seed = 0; seed < trials; seed++) {
+                BloomierHasher<Integer> hasher = new BloomierHasher<Integer>(HashFamilies.MURMUR3,
+                                                                             seed, m, k, 32);
+                if (peeler.peel(keys, hasher)) {
+                    successes++;
+                }
+            }
+
+            double rate = (double) successes / trials;
+            successRates.put(m, rate);
+            return rate;
+        }
+    }
+}
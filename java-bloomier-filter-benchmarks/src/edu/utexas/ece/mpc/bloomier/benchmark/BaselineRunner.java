@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler (allocation rate and bytes per operation) and writes the
+ * results as JSON, to be kept as a baseline and compared against after a change.
+ * 
+ * Usage: BaselineRunner [result file [benchmark regex]]
+ */
+public class BaselineRunner {
+    // Generous enough that construction never times out; seed retries are measured instead
+    static final int TIMEOUT_MS = 600000;
+
+    public static void main(String[] args) throws RunnerException {
+        String result = args.length > 0 ? args[0] : "baseline.json";
+        String include = args.length > 1 ? args[1] : BaselineRunner.class.getPackage().getName();
+
+        Options options = new OptionsBuilder().include(include)
+                                              .addProfiler(GCProfiler.class)
+                                              .resultFormat(ResultFormatType.JSON)
+                                              .result(result)
+                                              .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.LookupScratch;
+
+/**
+ * Hashing one key into its neighborhood and mask, as every lookup does, for each hash family.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BloomierHasherBenchmark {
+    // Hashing cycles through this many keys (a power of two)
+    private static final int HASHED_KEYS = 1 << 12;
+
+    @Param({ "100000" })
+    int m;
+
+    @Param({ "3", "4" })
+    int k;
+
+    @Param({ "41", "64", "128" })
+    int q;
+
+    @Param({ "INTEGER", "STRING" })
+    KeyType keyType;
+
+    // See HashFamilies (0 is MD5, 1 is Murmur3)
+    @Param({ "0", "1" })
+    int hashFamilyId;
+
+    private BloomierHasher<Object> hasher;
+    private Object[] keys;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hasher = new BloomierHasher<Object>(HashFamilies.forId(hashFamilyId), 0, m, k, q);
+        keys = keyType.keys(0, HASHED_KEYS);
+    }
+
+    // The scratch holds the results; returning it keeps the hashing from being optimized away
+    @Benchmark
+    public LookupScratch hash() {
+        LookupScratch scratch = LookupScratch.get();
+        hasher.hash(keys[next++ & (HASHED_KEYS - 1)], scratch);
+        return scratch;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.utexas.ece.mpc.bloomier.BloomierBuilder;
+import edu.utexas.ece.mpc.bloomier.ImmutableBloomierFilter;
+import edu.utexas.ece.mpc.bloomier.IntBloomierBuilder;
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+
+/**
+ * Construction and lookups (of members and of non members) for ImmutableBloomierFilter, with values
+ * stored through kryo and as fixed width ints (IntBloomierFilter). The encoded size of each build is
+ * reported as the tableBytes counter. rebuild repeats construction with a reused BloomierBuilder;
+ * compare its gc.alloc.rate.norm against construct's (and against tableBytes / builds, which rebuild
+ * can't avoid allocating).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImmutableBloomierFilterBenchmark {
+    private static final double SLOTS_PER_KEY = 1.35;
+
+    // Lookups cycle through this many keys (a power of two)
+    private static final int LOOKUP_KEYS = 1 << 12;
+
+    @Param({ "1000", "100000" })
+    int n;
+
+    @Param({ "3", "4" })
+    int k;
+
+    @Param({ "41", "64" })
+    int q;
+
+    @Param({ "INTEGER", "STRING" })
+    KeyType keyType;
+
+    @Param({ "int", "kryo" })
+    String values;
+
+    private Map<Object, Integer> map;
+    private int m;
+    private long nextSeed;
+    private BloomierBuilder<Object, Integer> builder;
+
+    private ImmutableBloomierFilter<Object, Integer> filter;
+    private Object[] members;
+    private Object[] nonMembers;
+    private int next;
+
+    // Bytes on the wire per build is tableBytes / builds
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Encoded {
+        public long tableBytes;
+        public long builds;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tableBytes = 0;
+            builds = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws TimeoutException {
+        map = keyType.map(n);
+        m = (int) Math.ceil(n * SLOTS_PER_KEY);
+        filter = build();
+
+        if (values.equals("int")) {
+            builder = new IntBloomierBuilder<Object>(HashFamilies.MURMUR3);
+        } else {
+            builder = new BloomierBuilder<Object, Integer>(Integer.class, HashFamilies.MURMUR3);
+        }
+
+        members = new Object[LOOKUP_KEYS];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = keyType.key(i % n);
+        }
+        nonMembers = keyType.keys(n, LOOKUP_KEYS);
+    }
+
+    private ImmutableBloomierFilter<Object, Integer> build() throws TimeoutException {
+        long hint = nextSeed++;
+        // A new builder each time, so every build starts cold (see rebuild)
+        BloomierBuilder<Object, Integer> once;
+        if (values.equals("int")) {
+            once = new IntBloomierBuilder<Object>(HashFamilies.MURMUR3);
+        } else {
+            once = new BloomierBuilder<Object, Integer>(Integer.class, HashFamilies.MURMUR3);
+        }
+        return once.build(map, m, k, q, BaselineRunner.TIMEOUT_MS, hint);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ImmutableBloomierFilter<Object, Integer> construct(Encoded counters)
+            throws TimeoutException {
+        ImmutableBloomierFilter<Object, Integer> built = build();
+        counters.tableBytes += built.getFlatTable().length;
+        counters.builds++;
+        return built;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ImmutableBloomierFilter<Object, Integer> rebuild(Encoded counters)
+            throws TimeoutException {
+        ImmutableBloomierFilter<Object, Integer> built;
+        built = builder.build(map, m, k, q, BaselineRunner.TIMEOUT_MS, nextSeed++);
+        counters.tableBytes += ImmutableBloomierFilter.getFlatTableLength(m, q);
+        counters.builds++;
+        return built;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Integer getMember() {
+        return filter.get(members[next++ & (LOOKUP_KEYS - 1)]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Integer getNonMember() {
+        return filter.get(nonMembers[next++ & (LOOKUP_KEYS - 1)]);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Key types the benchmarks are parameterized over; filters only hash a key's hashCode, but building
+// the key and computing its hashCode is part of every lookup
+public enum KeyType {
+    INTEGER {
+        @Override
+        Object key(int i) {
+            return Integer.valueOf(i);
+        }
+    },
+    LONG {
+        @Override
+        Object key(int i) {
+            return Long.valueOf(i * 0x9e3779b97f4a7c15L);
+        }
+    },
+    STRING {
+        @Override
+        Object key(int i) {
+            return "context-key-" + i; // like the keys of a context summary
+        }
+    };
+
+    abstract Object key(int i);
+
+    // Keys first, first + 1, ..., first + count - 1
+    Object[] keys(int first, int count) {
+        Object[] keys = new Object[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = key(first + i);
+        }
+        return keys;
+    }
+
+    Map<Object, Integer> map(int count) {
+        Map<Object, Integer> map = new HashMap<Object, Integer>();
+        for (int i = 0; i < count; i++) {
+            map.put(key(i), i * 31 - 5000);
+        }
+        return map;
+    }
+}
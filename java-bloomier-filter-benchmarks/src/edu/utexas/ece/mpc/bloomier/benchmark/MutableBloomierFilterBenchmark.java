@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.utexas.ece.mpc.bloomier.MutableBloomierFilter;
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+
+/**
+ * Lookups and in-place value updates on a MutableBloomierFilter (set only rewrites existing keys, so
+ * the filter's shape stays the same across invocations). putRemove inserts a new key and removes it
+ * again, so the key count stays at n; compare it against ImmutableBloomierFilterBenchmark.construct
+ * at the same n, which is what a filter that can't be updated in place pays for every change.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MutableBloomierFilterBenchmark {
+    private static final double SLOTS_PER_KEY = 1.35;
+
+    // Operations cycle through this many keys (a power of two)
+    private static final int OPERATION_KEYS = 1 << 12;
+
+    @Param({ "1000", "100000" })
+    int n;
+
+    @Param({ "3", "4" })
+    int k;
+
+    @Param({ "41", "64" })
+    int q;
+
+    @Param({ "INTEGER", "STRING" })
+    KeyType keyType;
+
+    private MutableBloomierFilter<Object, Integer> filter;
+    private Object[] members;
+    private Object[] nonMembers;
+    private Integer[] newValues;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws TimeoutException {
+        filter = new MutableBloomierFilter<Object, Integer>(keyType.map(n),
+                                                            (int) Math.ceil(n * SLOTS_PER_KEY), k,
+                                                            q, HashFamilies.MURMUR3,
+                                                            BaselineRunner.TIMEOUT_MS);
+
+        members = new Object[OPERATION_KEYS];
+        newValues = new Integer[OPERATION_KEYS];
+        for (int i = 0; i < OPERATION_KEYS; i++) {
+            members[i] = keyType.key(i % n);
+            newValues[i] = i;
+        }
+        nonMembers = keyType.keys(n, OPERATION_KEYS);
+    }
+
+    @Benchmark
+    public Integer get() {
+        return filter.get(members[next++ & (OPERATION_KEYS - 1)]);
+    }
+
+    @Benchmark
+    public void set() {
+        int i = next++ & (OPERATION_KEYS - 1);
+        filter.set(members[i], newValues[i]);
+    }
+
+    @Benchmark
+    public Integer putRemove() throws TimeoutException {
+        int i = next++ & (OPERATION_KEYS - 1);
+        filter.put(nonMembers[i], newValues[i]);
+        return filter.remove(nonMembers[i]);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatch;
+import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatchFinder;
+
+/**
+ * Time to find an order and matching, and the hash seeds tried along the way. Each invocation
+ * starts from the seed after the last one that succeeded, so retries are sampled over many seeds
+ * rather than repeating the same search.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderAndMatchFinderBenchmark {
+    @Param({ "1000", "100000" })
+    int n;
+
+    @Param({ "3", "4" })
+    int k;
+
+    @Param({ "41" })
+    int q;
+
+    // Peeling needs more than 1.222 slots per key for k=3 and 1.295 for k=4
+    @Param({ "1.3", "1.5" })
+    double slotsPerKey;
+
+    @Param({ "INTEGER", "STRING" })
+    KeyType keyType;
+
+    private List<Object> keys;
+    private int m;
+    private long nextSeed;
+
+    // Seeds tried per find() is attempts / finds
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Attempts {
+        public long attempts;
+        public long finds;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            attempts = 0;
+            finds = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keys = Arrays.asList(keyType.keys(0, n));
+        m = (int) Math.ceil(n * slotsPerKey);
+    }
+
+    @Benchmark
+    public OrderAndMatch<Object> find(Attempts counters) throws TimeoutException {
+        long hint = nextSeed;
+        OrderAndMatchFinder<Object> finder;
+        finder = new OrderAndMatchFinder<Object>(keys, m, k, q, HashFamilies.MURMUR3, hint);
+        OrderAndMatch<Object> oam = finder.find(BaselineRunner.TIMEOUT_MS);
+
+        counters.attempts += oam.getHashSeed() - hint + 1;
+        counters.finds++;
+        nextSeed = oam.getHashSeed() + 1;
+        return oam;
+    }
+}
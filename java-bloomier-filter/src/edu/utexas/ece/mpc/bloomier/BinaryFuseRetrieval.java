@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.hash.HashFamily;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+import edu.utexas.ece.mpc.bloomier.hash.Murmur3HashFamily;
+import edu.utexas.ece.mpc.bloomier.internal.BitPackedTable;
+import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.ByteBufferPackedTable;
+import edu.utexas.ece.mpc.bloomier.internal.KryoValueCodec;
+import edu.utexas.ece.mpc.bloomier.internal.LookupScratch;
+import edu.utexas.ece.mpc.bloomier.internal.PackedTable;
+import edu.utexas.ece.mpc.bloomier.internal.ValueCodec;
+
+/**
+ * Retrieval with a 3-wise binary fuse layout (Graf and Lemire, "Binary Fuse Filters"). The table is
+ * split into segments and each key's three slots fall in three consecutive segments, which lets
+ * peeling succeed with about 1.13 slots per key for large key sets (the Bloomier layout needs more
+ * than 1.22). Small key sets get proportionally bigger tables. Values are stored as in
+ * ImmutableBloomierFilter: encoded, XORed with a per-key mask, in q bit slots. Keys are hashed
+ * whole: the key funnel's encoding goes through Murmur3 under the seed, giving a 64 bit hash from
+ * which the slots and mask are derived.
+ */
+public class BinaryFuseRetrieval<K, V> implements RetrievalStructure<K, V> {
+    public static final int ARITY = 3;
+
+    private static final int MAX_SEGMENT_LENGTH = 1 << 18;
+
+    private static final HashFamily HASH_FAMILY = HashFamilies.MURMUR3;
+    private static final int HASH_LENGTH = Long.SIZE / Byte.SIZE;
+    private static final int[] NO_SLOTS = new int[0];
+
+    // SplitMix64 increment, for stretching a key's hash into its mask
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final ValueCodec<V> codec;
+    private final KeyFunnel<? super K> keyFunnel;
+    private final int q;
+    private final long hashSeed;
+
+    private final int segmentLength;
+    private final int segmentCount;
+    private final int segmentCountLength;
+
+    private final PackedTable table;
+
+    public BinaryFuseRetrieval(Map<K, V> map, int q, Class<V> valueClass, int timeoutMs,
+                               long hashSeedHint) throws TimeoutException {
+        this(map, q, KryoValueCodec.forClass(valueClass), KeyFunnels.DEFAULT, timeoutMs,
+             hashSeedHint);
+    }
+
+    // Keys whose funnel encodings are equal can't be told apart, so the build times out on them
+    public BinaryFuseRetrieval(Map<K, V> map, int q, ValueCodec<V> codec,
+                               KeyFunnel<? super K> keyFunnel, int timeoutMs, long hashSeedHint)
+            throws TimeoutException {
+        this(q, codec, keyFunnel, build(map, q, codec, keyFunnel, timeoutMs, hashSeedHint));
+    }
+
+    private BinaryFuseRetrieval(int q, ValueCodec<V> codec, KeyFunnel<? super K> keyFunnel,
+                                Construction construction) {
+        this(q, codec, keyFunnel, construction.hashSeed, construction.segmentLength,
+             construction.segmentCount, construction.table.getBytes());
+    }
+
+    public BinaryFuseRetrieval(int q, Class<V> valueClass, long hashSeed, int segmentLength,
+                               int segmentCount, byte[] table) {
+        this(q, KryoValueCodec.forClass(valueClass), KeyFunnels.DEFAULT, hashSeed, segmentLength,
+             segmentCount, table);
+    }
+
+    // The packed table is used as is (not copied); it must hold getArrayLength() entries
+    public BinaryFuseRetrieval(int q, ValueCodec<V> codec, KeyFunnel<? super K> keyFunnel,
+                               long hashSeed, int segmentLength, int segmentCount, byte[] table) {
+        this(q, codec, keyFunnel, hashSeed, segmentLength, segmentCount,
+             new BitPackedTable(getArrayLength(segmentLength, segmentCount), q, table));
+    }
+
+    // A view reading the packed table in place from table's position on (see
+    // ByteBufferPackedTable.slice); the bytes must not change while the filter is in use
+    public BinaryFuseRetrieval(int q, ValueCodec<V> codec, KeyFunnel<? super K> keyFunnel,
+                               long hashSeed, int segmentLength, int segmentCount,
+                               ByteBuffer table) {
+        this(q, codec, keyFunnel, hashSeed, segmentLength, segmentCount,
+             ByteBufferPackedTable.slice(table, getArrayLength(segmentLength, segmentCount), q));
+    }
+
+    private BinaryFuseRetrieval(int q, ValueCodec<V> codec, KeyFunnel<? super K> keyFunnel,
+                                long hashSeed, int segmentLength, int segmentCount,
+                                PackedTable table) {
+        if (Integer.bitCount(segmentLength) != 1 || segmentCount < 1) {
+            throw new IllegalArgumentException("Invalid layout (segmentLength=" + segmentLength
+                                               + "; segmentCount=" + segmentCount + ")");
+        }
+
+        this.q = q;
+        this.codec = codec;
+        this.keyFunnel = keyFunnel;
+        this.hashSeed = hashSeed;
+
+        this.segmentLength = segmentLength;
+        this.segmentCount = segmentCount;
+        segmentCountLength = segmentCount * segmentLength;
+
+        this.table = table;
+    }
+
+    @Override
+    public V get(K key) {
+        LookupScratch scratch = LookupScratch.get();
+        long hash = hash(key, keyFunnel, hashSeed, scratch.getKey(keyFunnel.getMaxLength(key)),
+                         scratch.getMask(HASH_LENGTH));
+
+        int entryBytes = table.getEntryBytes();
+        byte[] entry = scratch.getEntry(entryBytes);
+        fillMask(hash, entry, entryBytes);
+
+        int[] slots = scratch.getNeighborhood(ARITY);
+        getSlots(hash, slots);
+        for (int slot: slots) {
+            table.xorEntryInto(slot, entry);
+        }
+
+        // Mask bits past q aren't part of the entry
+        entry[entryBytes - 1] &= BitPackedTable.lastByteMask(q);
+
+        return codec.decode(entry, q);
+    }
+
+    @Override
+    public int getAll(K[] keys, V[] values, long[] missing) {
+        MissingBitmap.prepare(keys.length, values.length, missing);
+
+        int found = 0;
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = get(keys[i]);
+            if (values[i] == null) {
+                MissingBitmap.set(missing, i);
+            } else {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public int getEngineId() {
+        return RetrievalEngines.BINARY_FUSE;
+    }
+
+    @Override
+    public int getM() {
+        return table.getM();
+    }
+
+    @Override
+    public int getQ() {
+        return q;
+    }
+
+    @Override
+    public long getHashSeed() {
+        return hashSeed;
+    }
+
+    public int getSegmentLength() {
+        return segmentLength;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    // The live packed table (not a copy) unless the table is a view
+    @Override
+    public byte[] getFlatTable() {
+        return BitPackedTable.getBytes(table);
+    }
+
+    public ValueCodec<V> getCodec() {
+        return codec;
+    }
+
+    public KeyFunnel<? super K> getKeyFunnel() {
+        return keyFunnel;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BinaryFuseRetrieval (m=%d; q=%d; segmentLength=%d; hashSeed=%d)",
+                             getM(), q, segmentLength, hashSeed);
+    }
+
+    // Number of slots used for n keys
+    public static int getArrayLength(int n) {
+        int segmentLength = segmentLengthFor(n);
+        return getArrayLength(segmentLength, segmentCountFor(n, segmentLength));
+    }
+
+    // Number of slots in a given layout
+    public static int getArrayLength(int segmentLength, int segmentCount) {
+        return (segmentCount + ARITY - 1) * segmentLength;
+    }
+
+    // Layout parameters from the reference implementation
+    private static int segmentLengthFor(int n) {
+        if (n == 0) {
+            return 4;
+        }
+        int segmentLength = 1 << (int) Math.floor(Math.log(n) / Math.log(3.33) + 2.25);
+        return Math.min(segmentLength, MAX_SEGMENT_LENGTH);
+    }
+
+    private static int segmentCountFor(int n, int segmentLength) {
+        double sizeFactor = n <= 1 ? 0
+                                  : Math.max(1.125, 0.875 + 0.25 * Math.log(1000000) / Math.log(n));
+        long capacity = Math.round(n * sizeFactor);
+        long segments = (capacity + segmentLength - 1) / segmentLength - (ARITY - 1);
+        return (int) Math.max(1, segments);
+    }
+
+    // The first HASH_LENGTH bytes of the key's mask under hashSeed, as a 64 bit hash of its whole
+    // encoding; keyBuffer must fit the encoding and hashBytes be HASH_LENGTH long
+    private static <K> long hash(K key, KeyFunnel<? super K> keyFunnel, long hashSeed,
+                                 byte[] keyBuffer, byte[] hashBytes) {
+        int length = keyFunnel.encode(key, keyBuffer);
+        HASH_FAMILY.hash(hashSeed, keyBuffer, length, 0, NO_SLOTS, hashBytes);
+
+        long hash = 0;
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            hash |= (hashBytes[i] & 0xffL) << (i * Byte.SIZE);
+        }
+        return hash;
+    }
+
+    private void getSlots(long hash, int[] slots) {
+        getSlots(hash, segmentLength, segmentCountLength, slots);
+    }
+
+    private static void getSlots(long hash, int segmentLength, int segmentCountLength, int[] slots) {
+        int segmentMask = segmentLength - 1;
+        int h0 = (int) (((hash >>> 32) * segmentCountLength) >>> 32);
+        int h1 = h0 + segmentLength;
+        int h2 = h1 + segmentLength;
+        slots[0] = h0;
+        slots[1] = h1 ^ ((int) (hash >>> 18) & segmentMask);
+        slots[2] = h2 ^ ((int) hash & segmentMask);
+    }
+
+    // Fills the first length bytes of mask with bits derived from the key's hash
+    private static void fillMask(long hash, byte[] mask, int length) {
+        long state = hash;
+        for (int i = 0; i < length; i += Long.SIZE / Byte.SIZE) {
+            state += GOLDEN_GAMMA;
+            long bits = Murmur3HashFamily.fmix64(state);
+            for (int j = i; j < Math.min(length, i + Long.SIZE / Byte.SIZE); j++) {
+                mask[j] = (byte) bits;
+                bits >>>= Byte.SIZE;
+            }
+        }
+    }
+
+    private static <K, V> Construction build(Map<K, V> map, int q, ValueCodec<V> codec,
+                                             KeyFunnel<? super K> keyFunnel, int timeoutMs,
+                                             long hashSeedHint) throws TimeoutException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+
+        int n = map.size();
+        List<K> keys = new ArrayList<K>(map.keySet());
+
+        int segmentLength = segmentLengthFor(n);
+        int segmentCount = segmentCountFor(n, segmentLength);
+        int segmentCountLength = segmentCount * segmentLength;
+        int arrayLength = getArrayLength(segmentLength, segmentCount);
+
+        long[] hashes = new long[n];
+        int[] degrees = new int[arrayLength];
+        int[] keyXors = new int[arrayLength];
+        int[] queue = new int[arrayLength];
+        int[] order = new int[n]; // keys in peeling order
+        int[] orderSlots = new int[n]; // and the slot each was peeled from
+        int[] slots = new int[ARITY];
+        byte[] keyBuffer = new byte[BloomierHasher.KEY_LENGTH];
+        byte[] hashBytes = new byte[HASH_LENGTH];
+
+        for (long seed = hashSeedHint;; seed++) {
+            if (System.nanoTime() - deadline >= 0) {
+                throw new TimeoutException(String.format("Could not build binary fuse layout for key set in alloted time (n=%d;q=%d)",
+                                                         n, q));
+            }
+
+            Arrays.fill(degrees, 0);
+            Arrays.fill(keyXors, 0);
+            for (int i = 0; i < n; i++) {
+                K key = keys.get(i);
+                int length = keyFunnel.getMaxLength(key);
+                if (length > keyBuffer.length) {
+                    keyBuffer = new byte[Math.max(length, 2 * keyBuffer.length)];
+                }
+                hashes[i] = hash(key, keyFunnel, seed, keyBuffer, hashBytes);
+                getSlots(hashes[i], segmentLength, segmentCountLength, slots);
+                for (int slot: slots) {
+                    degrees[slot]++;
+                    keyXors[slot] ^= i;
+                }
+            }
+
+            // Peel keys off slots that only they touch
+            int queued = 0;
+            for (int slot = 0; slot < arrayLength; slot++) {
+                if (degrees[slot] == 1) {
+                    queue[queued++] = slot;
+                }
+            }
+            int peeled = 0;
+            for (int head = 0; head < queued; head++) {
+                int slot = queue[head];
+                if (degrees[slot] != 1) {
+                    continue; // its key was already peeled from another slot
+                }
+
+                int key = keyXors[slot];
+                order[peeled] = key;
+                orderSlots[peeled] = slot;
+                peeled++;
+
+                getSlots(hashes[key], segmentLength, segmentCountLength, slots);
+                for (int other: slots) {
+                    degrees[other]--;
+                    keyXors[other] ^= key;
+                    if (degrees[other] == 1) {
+                        queue[queued++] = other;
+                    }
+                }
+            }
+
+            if (peeled < n) {
+                continue; // try another seed
+            }
+
+            // Assign in reverse peeling order: each key's slot is untouched by every key assigned
+            // before it
+            BitPackedTable table = new BitPackedTable(arrayLength, q);
+            int entryBytes = table.getEntryBytes();
+            for (int i = n - 1; i >= 0; i--) {
+                int key = order[i];
+                byte[] entry = new byte[entryBytes];
+                codec.encode(map.get(keys.get(key)), entry, q);
+
+                byte[] mask = new byte[entryBytes];
+                fillMask(hashes[key], mask, entryBytes);
+                for (int j = 0; j < entryBytes; j++) {
+                    entry[j] ^= mask[j];
+                }
+
+                getSlots(hashes[key], segmentLength, segmentCountLength, slots);
+                for (int slot: slots) {
+                    table.xorEntryInto(slot, entry);
+                }
+                table.setEntry(orderSlots[i], entry);
+            }
+
+            Construction construction = new Construction();
+            construction.hashSeed = seed;
+            construction.segmentLength = segmentLength;
+            construction.segmentCount = segmentCount;
+            construction.table = table;
+            return construction;
+        }
+    }
+
+    private static class Construction {
+        long hashSeed;
+        int segmentLength;
+        int segmentCount;
+        BitPackedTable table;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamily;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatch;
+import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatchFinder;
+import edu.utexas.ece.mpc.bloomier.internal.SearchMonitor;
+
+/**
+ * A filter being built on an executor (see ImmutableBloomierFilter.buildAsync,
+ * IntBloomierFilter.buildAsync and BloomierBuilder.buildAsync). Cancelling it stops the build at
+ * its next check, which happens between seed attempts and periodically while peeling, so the
+ * executor's thread is released rather than left searching. The progress getters may be read at
+ * any time.
+ */
+public class BloomierBuildFuture<T> extends CompletableFuture<T> {
+    private final AtomicLong attempts = new AtomicLong();
+    private volatile long hashSeed;
+    private volatile boolean filling;
+
+    private final SearchMonitor monitor = new SearchMonitor() {
+
+        @Override
+        public boolean isCancelled() {
+            // Also stops a build that was completed (or failed) by someone else
+            return isDone();
+        }
+
+        @Override
+        public void attemptStarted(long seed) {
+            hashSeed = seed;
+            attempts.incrementAndGet();
+        }
+    };
+
+    // Hash seeds tried so far
+    public long getAttempts() {
+        return attempts.get();
+    }
+
+    // The seed of the latest attempt
+    public long getHashSeed() {
+        return hashSeed;
+    }
+
+    // Whether the search has succeeded and the table is being filled
+    public boolean isFilling() {
+        return filling;
+    }
+
+    // For builds that run their own seed search (see BloomierBuilder)
+    SearchMonitor getMonitor() {
+        return monitor;
+    }
+
+    void setFilling() {
+        filling = true;
+    }
+
+    interface Build<T> {
+        T run(BloomierBuildFuture<T> progress) throws Exception;
+    }
+
+    static <T> BloomierBuildFuture<T> submit(Executor executor, final Build<T> build) {
+        final BloomierBuildFuture<T> future = new BloomierBuildFuture<T>();
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                if (future.isDone()) {
+                    return; // Cancelled before it started
+                }
+
+                try {
+                    future.complete(build.run(future));
+                } catch (CancellationException e) {
+                    // The future was already cancelled
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            }
+        });
+        return future;
+    }
+
+    // Searches without a deadline (cancellation takes its place), then marks the build as filling
+    <K> OrderAndMatch<K> search(Map<K, ?> map, int m, int k, int q, HashFamily hashFamily,
+                                KeyFunnel<? super K> keyFunnel, long hashSeedHint)
+            throws Exception {
+        OrderAndMatchFinder<K> finder = new OrderAndMatchFinder<K>(map.keySet(), m, k, q,
+                                                                   hashFamily, keyFunnel,
+                                                                   hashSeedHint);
+        OrderAndMatch<K> oam = finder.find(Long.MAX_VALUE, monitor);
+        filling = true;
+        return oam;
+    }
+}
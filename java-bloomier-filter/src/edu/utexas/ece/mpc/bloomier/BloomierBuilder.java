@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamily;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+import edu.utexas.ece.mpc.bloomier.internal.BitPackedTable;
+import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.CancellationSignal;
+import edu.utexas.ece.mpc.bloomier.internal.HypergraphPeeler;
+import edu.utexas.ece.mpc.bloomier.internal.KryoValueCodec;
+import edu.utexas.ece.mpc.bloomier.internal.OverflowStash;
+import edu.utexas.ece.mpc.bloomier.internal.ValueCodec;
+
+/**
+ * Builds filters over successive versions of a map (e.g. a summary that is republished every few
+ * seconds) while keeping its work space between builds. The peeling arrays, the key and value
+ * arrays and the encoding buffers only grow, and only when the key count grows, so once they've
+ * reached the size of the largest map built a rebuild allocates little more than the table of the
+ * filter it returns (and whatever the codec allocates while encoding). Builds are serialized; use
+ * one builder per thread for concurrent builds.
+ * <p>
+ * With a maximum stash size set, a seed whose peel leaves at most that many keys in the
+ * hypergraph's core is kept: the peeled keys go in the table and the rest in the filter's
+ * {@link OverflowStash}, so a build rarely needs more than the first seed.
+ */
+public class BloomierBuilder<K, V> {
+    protected final ValueCodec<V> codec;
+    protected final HashFamily hashFamily;
+    protected final KeyFunnel<? super K> keyFunnel;
+
+    private final HypergraphPeeler<K> peeler = new HypergraphPeeler<K>(0, 0);
+    private K[] keys = newArray(0);
+    private V[] values = newArray(0);
+
+    private byte[] keyBuffer = new byte[BloomierHasher.KEY_LENGTH];
+    private int[] neighborhood = new int[0];
+    private byte[] mask = new byte[0];
+    private byte[] entry = new byte[0];
+
+    private int maxStashSize;
+    private int[] unpeeled = new int[0];
+    private long[] stashIds = new long[0];
+    private V[] stashValues = newArray(0);
+
+    // State of the build in progress, read by the peeler through timeout; progress is only set for
+    // builds started with buildAsync, and stops them once it's cancelled
+    private long deadline;
+    private boolean hasDeadline;
+    private BloomierBuildFuture<?> progress;
+    private final CancellationSignal timeout = new CancellationSignal() {
+
+        @Override
+        public boolean isCancelled() {
+            return (hasDeadline && System.nanoTime() - deadline >= 0)
+                   || (progress != null && progress.isDone());
+        }
+    };
+
+    public BloomierBuilder(Class<V> valueClass, HashFamily hashFamily) {
+        this(valueClass, hashFamily, KeyFunnels.DEFAULT);
+    }
+
+    public BloomierBuilder(Class<V> valueClass, HashFamily hashFamily,
+                           KeyFunnel<? super K> keyFunnel) {
+        this(KryoValueCodec.forClass(valueClass), hashFamily, keyFunnel);
+    }
+
+    // For subclasses storing values with something other than kryo
+    protected BloomierBuilder(ValueCodec<V> codec, HashFamily hashFamily,
+                              KeyFunnel<? super K> keyFunnel) {
+        this.codec = codec;
+        this.hashFamily = hashFamily;
+        this.keyFunnel = keyFunnel;
+    }
+
+    public synchronized int getMaxStashSize() {
+        return maxStashSize;
+    }
+
+    // How many unpeeled keys a build may stash rather than trying another seed (0, the default,
+    // never stashes). Filters with a stash can't be written to a BloomierFilterFile.
+    public synchronized void setMaxStashSize(int maxStashSize) {
+        if (maxStashSize < 0) {
+            throw new IllegalArgumentException("Stash size can't be negative: " + maxStashSize);
+        }
+        this.maxStashSize = maxStashSize;
+    }
+
+    public ImmutableBloomierFilter<K, V> build(Map<K, V> map, int m, int k, int q,
+                                               long hashSeedHint) {
+        try {
+            return build(map, m, k, q, codec, 0, false, 0, hashSeedHint);
+        } catch (TimeoutException e) {
+            throw new AssertionError("Should never be possible");
+        }
+    }
+
+    public ImmutableBloomierFilter<K, V> build(Map<K, V> map, int m, int k, int q, int timeoutMs,
+                                               long hashSeedHint) throws TimeoutException {
+        return build(map, m, k, q, codec, 0, true, timeoutMs, hashSeedHint);
+    }
+
+    // Keeps the last fingerprintBits bits of each entry for a fingerprint of the key, so that a
+    // non-member is rejected before any decoding and passes with probability 2^-fingerprintBits
+    // (values get the remaining q - fingerprintBits bits)
+    public ImmutableBloomierFilter<K, V> build(Map<K, V> map, int m, int k, int q,
+                                               int fingerprintBits, int timeoutMs,
+                                               long hashSeedHint) throws TimeoutException {
+        return build(map, m, k, q, codec, fingerprintBits, true, timeoutMs, hashSeedHint);
+    }
+
+    // With m, k and q from a BloomierParameters plan, whose check bits are the fingerprint
+    public ImmutableBloomierFilter<K, V> build(Map<K, V> map, BloomierParameters parameters,
+                                               long hashSeedHint) {
+        try {
+            return build(map, parameters.getM(), parameters.getK(), parameters.getQ(),
+                         codec, parameters.getCheckBits(), false, 0, hashSeedHint);
+        } catch (TimeoutException e) {
+            throw new AssertionError("Should never be possible");
+        }
+    }
+
+    // As build(Map, BloomierParameters, long), but on the executor; the map must not change until
+    // the build completes. Builds on this builder take turns, so one started while another is
+    // running waits for it.
+    public BloomierBuildFuture<ImmutableBloomierFilter<K, V>> buildAsync(
+            final Map<K, V> map, final BloomierParameters parameters, final long hashSeedHint,
+            Executor executor) {
+        BloomierBuildFuture.Build<ImmutableBloomierFilter<K, V>> build;
+        build = new BloomierBuildFuture.Build<ImmutableBloomierFilter<K, V>>() {
+
+            @Override
+            public ImmutableBloomierFilter<K, V> run(BloomierBuildFuture<ImmutableBloomierFilter<K, V>> future) {
+                synchronized (BloomierBuilder.this) {
+                    progress = future;
+                    try {
+                        return build(map, parameters, hashSeedHint);
+                    } finally {
+                        progress = null;
+                    }
+                }
+            }
+        };
+        return BloomierBuildFuture.submit(executor, build);
+    }
+
+    // Every build ends up here; subclasses whose codec depends on the map (e.g. on its distinct
+    // values) can supply it per build
+    protected synchronized ImmutableBloomierFilter<K, V> build(Map<K, V> map, int m, int k, int q,
+                                                               ValueCodec<V> codec,
+                                                               int fingerprintBits,
+                                                               boolean hasDeadline, int timeoutMs,
+                                                               long hashSeedHint)
+            throws TimeoutException {
+        ImmutableBloomierFilter.checkFingerprintBits(fingerprintBits, q);
+        this.hasDeadline = hasDeadline;
+        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+
+        int n = copy(map);
+        try {
+            reshape(m, k);
+
+            long hashSeed = hashSeedHint;
+            while (true) {
+                if (progress != null) {
+                    if (progress.isDone()) {
+                        throw new CancellationException();
+                    }
+                    progress.getMonitor().attemptStarted(hashSeed);
+                }
+                if (timeout.isCancelled()) {
+                    throw new TimeoutException(
+                                               String.format("Could not find order and matching for key set in alloted time with specified parameters (m=%d;k=%d;q=%d)",
+                                                             m, k, q));
+                }
+
+                BloomierHasher<K> hasher;
+                hasher = new BloomierHasher<K>(hashFamily, keyFunnel, hashSeed, m, k, q);
+                boolean peeled = peeler.peel(keys, n, hasher, timeout);
+                if (peeled || (!timeout.isCancelled()
+                               && n - peeler.getPeeledCount() <= maxStashSize)) {
+                    if (progress != null) {
+                        progress.setFilling();
+                    }
+                    BitPackedTable table = fill(hasher, m, q, codec, fingerprintBits);
+                    OverflowStash<V> stash;
+                    stash = peeled ? OverflowStash.<V> empty() : stash(hasher, n, q);
+                    if (stash != null) {
+                        return newFilter(codec, hasher, table, fingerprintBits, stash);
+                    }
+                }
+
+                hashSeed++; // will wrap around if a hashSeedHint was provided
+            }
+        } finally {
+            // Don't keep the map's keys and values reachable until the next build
+            Arrays.fill(keys, 0, n, null);
+            Arrays.fill(values, 0, n, null);
+            Arrays.fill(stashValues, null);
+        }
+    }
+
+    // Wraps a filled table; subclasses return their own filter type
+    protected ImmutableBloomierFilter<K, V> newFilter(ValueCodec<V> codec,
+                                                      BloomierHasher<K> hasher,
+                                                      BitPackedTable table, int fingerprintBits,
+                                                      OverflowStash<V> stash) {
+        return new ImmutableBloomierFilter<K, V>(codec, hasher, table, fingerprintBits, stash);
+    }
+
+    // Stashes the keys the last peel of n keys left behind, or returns null in the (astronomically
+    // unlikely) case two of them share an id
+    private OverflowStash<V> stash(BloomierHasher<K> hasher, int n, int q) {
+        int count = n - peeler.getPeeledCount();
+        if (unpeeled.length < count) {
+            unpeeled = new int[count];
+            stashIds = new long[count];
+            stashValues = newArray(count);
+        }
+        peeler.getUnpeeledKeys(n, unpeeled);
+
+        // fill has already sized mask for this hasher
+        for (int i = 0; i < count; i++) {
+            K key = keys[unpeeled[i]];
+            keyBuffer = hasher.getKeyBuffer(key, keyBuffer);
+            hasher.hash(key, keyBuffer, neighborhood, mask);
+            stashIds[i] = OverflowStash.idOf(neighborhood, neighborhood.length, mask, q);
+            stashValues[i] = values[unpeeled[i]];
+        }
+
+        try {
+            return OverflowStash.of(stashIds, stashValues, count);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private int copy(Map<K, V> map) {
+        int n = map.size();
+        if (keys.length < n) {
+            keys = newArray(n);
+            values = newArray(n);
+        }
+
+        int i = 0;
+        for (Map.Entry<K, V> e: map.entrySet()) {
+            keys[i] = e.getKey();
+            values[i] = e.getValue();
+            i++;
+        }
+        return n;
+    }
+
+    private void reshape(int m, int k) {
+        peeler.reshape(m, k);
+
+        if (neighborhood.length != k) {
+            neighborhood = new int[k];
+        }
+    }
+
+    // Stores the values in the reverse of the peeling order (see HypergraphPeeler)
+    private BitPackedTable fill(BloomierHasher<K> hasher, int m, int q, ValueCodec<V> codec,
+                                int fingerprintBits) {
+        BitPackedTable table = new BitPackedTable(m, q);
+        if (mask.length != hasher.getMaskLength()) {
+            mask = new byte[hasher.getMaskLength()];
+        }
+        if (entry.length != table.getEntryBytes()) {
+            entry = new byte[table.getEntryBytes()];
+        }
+
+        for (int i = peeler.getPeeledCount() - 1; i >= 0; i--) {
+            int key = peeler.getPeeledKey(i);
+            keyBuffer = hasher.getKeyBuffer(keys[key], keyBuffer);
+            ImmutableBloomierFilter.store(table, 0, keys[key], values[key],
+                                          peeler.getPeeledIota(i), hasher, fingerprintBits, codec,
+                                          keyBuffer, neighborhood, mask, entry);
+        }
+        return table;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T[] newArray(int length) {
+        return (T[]) new Object[length];
+    }
+}
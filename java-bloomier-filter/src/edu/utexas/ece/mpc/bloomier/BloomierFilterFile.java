@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+package edu.utexas.ece.mpc.bloomier;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.hash.HashFamily;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+import edu.utexas.ece.mpc.bloomier.internal.KryoValueCodec;
+import edu.utexas.ece.mpc.bloomier.internal.PackedTable;
+
+/**
+ * The on-disk format for immutable bloomier filters. All fields are big-endian:
+ * 
+ * <pre>
+ * int  magic ("BLMR")
+ * int  version
+ * int  hash family id
+ * int  key funnel id
+ * int  m
+ * int  k
+ * int  q
+ * int  fingerprint bits
+ * long hash seed
+ * long table length in bytes (ceil(m * q / 8))
+ * ...  packed table (m entries of exactly q bits)
+ * </pre>
+ * 
+ * Values are always kryo encoded (see KryoValueCodec), but their class isn't recorded; readers
+ * have to know the value class the filter was built with. Only the built in key funnels (see
+ * KeyFunnels) can be recorded.
+ */
+public class BloomierFilterFile {
+    public static final int MAGIC = 0x424c4d52;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 8 * (Integer.SIZE / Byte.SIZE) + 2
+                                          * (Long.SIZE / Byte.SIZE);
+
+    private static final int PREAMBLE_SIZE = 2 * (Integer.SIZE / Byte.SIZE);
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final HashFamily hashFamily;
+    private final KeyFunnel<?> keyFunnel;
+    private final int m;
+    private final int k;
+    private final int q;
+    private final int fingerprintBits;
+    private final long hashSeed;
+    private final long tableLength;
+
+    public BloomierFilterFile(HashFamily hashFamily, int m, int k, int q, long hashSeed) {
+        this(hashFamily, KeyFunnels.DEFAULT, m, k, q, 0, hashSeed);
+    }
+
+    public BloomierFilterFile(HashFamily hashFamily, KeyFunnel<?> keyFunnel, int m, int k, int q,
+                              int fingerprintBits, long hashSeed) {
+        this.hashFamily = hashFamily;
+        this.keyFunnel = checkKeyFunnel(keyFunnel);
+        this.m = m;
+        this.k = k;
+        this.q = q;
+        this.fingerprintBits = fingerprintBits;
+        this.hashSeed = hashSeed;
+        this.tableLength = ((long) m * q + Byte.SIZE - 1) / Byte.SIZE;
+    }
+
+    // Filters with stashed keys, a custom key funnel or a value codec other than kryo can't be
+    // written, as the format has no room for the stashed values and no way to name the funnel or
+    // codec
+    public static void write(ImmutableBloomierFilter<?, ?> filter, File file) throws IOException {
+        checkNoStash(filter);
+        checkKryoCodec(filter);
+        checkKeyFunnel(filter.getKeyFunnel());
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            write(filter, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void write(ImmutableBloomierFilter<?, ?> filter, OutputStream out)
+            throws IOException {
+        checkNoStash(filter);
+        checkKryoCodec(filter);
+        BloomierFilterFile header = new BloomierFilterFile(filter.getHashFamily(),
+                                                           filter.getKeyFunnel(), filter.getM(),
+                                                           filter.getK(), filter.getQ(),
+                                                           filter.getFingerprintBits(),
+                                                           filter.getHashSeed());
+        header.writeHeader(out);
+
+        PackedTable table = filter.getPackedTable();
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        for (long offset = 0; offset < header.tableLength; offset += buffer.length) {
+            int length = (int) Math.min(buffer.length, header.tableLength - offset);
+            table.copyBytes(offset, buffer, 0, length);
+            out.write(buffer, 0, length);
+        }
+        out.flush();
+    }
+
+    private static void checkNoStash(ImmutableBloomierFilter<?, ?> filter) {
+        int stashed = filter.getStash().size();
+        if (stashed != 0) {
+            throw new IllegalArgumentException("Can't write a filter with " + stashed
+                                               + " stashed keys");
+        }
+    }
+
+    // MappedBloomierFilter decodes with the kryo codec for the value class it's given
+    private static void checkKryoCodec(ImmutableBloomierFilter<?, ?> filter) {
+        if (!(filter.getCodec() instanceof KryoValueCodec)) {
+            throw new IllegalArgumentException("Can't write a filter with value codec "
+                                               + filter.getCodec().getClass().getSimpleName());
+        }
+    }
+
+    // Readers find the funnel by id, so it has to be the built in funnel with that id
+    private static KeyFunnel<?> checkKeyFunnel(KeyFunnel<?> keyFunnel) {
+        if (!KeyFunnels.isBuiltIn(keyFunnel)) {
+            throw new IllegalArgumentException("Can't record custom key funnel "
+                                               + keyFunnel.getName());
+        }
+        return keyFunnel;
+    }
+
+    public void writeHeader(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(hashFamily.getId());
+        data.writeInt(keyFunnel.getId());
+        data.writeInt(m);
+        data.writeInt(k);
+        data.writeInt(q);
+        data.writeInt(fingerprintBits);
+        data.writeLong(hashSeed);
+        data.writeLong(tableLength);
+        data.flush();
+    }
+
+    public static BloomierFilterFile readHeader(FileChannel channel) throws IOException {
+        ByteBuffer preamble = read(channel, 0, PREAMBLE_SIZE);
+        if (preamble.getInt() != MAGIC) {
+            throw new IOException("Not a bloomier filter file");
+        }
+        int version = preamble.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported bloomier filter file version: " + version);
+        }
+
+        ByteBuffer header = read(channel, PREAMBLE_SIZE, HEADER_SIZE - PREAMBLE_SIZE);
+        HashFamily hashFamily = HashFamilies.forId(header.getInt());
+        KeyFunnel<?> keyFunnel = KeyFunnels.forId(header.getInt());
+        int m = header.getInt();
+        int k = header.getInt();
+        int q = header.getInt();
+        int fingerprintBits = header.getInt();
+        long hashSeed = header.getLong();
+
+        BloomierFilterFile file = new BloomierFilterFile(hashFamily, keyFunnel, m, k, q,
+                                                         fingerprintBits, hashSeed);
+        long tableLength = header.getLong();
+        if (tableLength != file.tableLength) {
+            throw new IOException("Corrupt bloomier filter header (table length " + tableLength
+                                  + " does not match m=" + m + " and q=" + q + ")");
+        }
+        if (channel.size() < HEADER_SIZE + tableLength) {
+            throw new IOException("Truncated bloomier filter table");
+        }
+
+        return file;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated bloomier filter header");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public HashFamily getHashFamily() {
+        return hashFamily;
+    }
+
+    public KeyFunnel<?> getKeyFunnel() {
+        return keyFunnel;
+    }
+
+    public int getM() {
+        return m;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public int getQ() {
+        return q;
+    }
+
+    public int getFingerprintBits() {
+        return fingerprintBits;
+    }
+
+    public long getHashSeed() {
+        return hashSeed;
+    }
+
+    public long getTableLength() {
+        return tableLength;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+/**
+ * Plans the table parameters for a key count: q from the value width and a target false positive
+ * rate, and m and k as the smallest table whose construction is expected to need at most a given
+ * number of hash seed attempts. Each attempt peels the whole key set once, so the attempt budget
+ * trades construction time against wire size. The slots per key come from
+ * BloomierParametersCalibration (in the benchmarks) and assume a well mixed hash family such as
+ * HashFamilies.MURMUR3.
+ * 
+ * The false positive rate (2^-(q - valueBits)) holds for codecs that store values in a fixed
+ * valueBits bits and reject entries whose remaining bits aren't zero, such as IntBloomierFilter's,
+ * and for filters using the remaining bits as a fingerprint (see ImmutableBloomierFilter).
+ */
+public class BloomierParameters {
+    public static final int MIN_K = 2;
+    public static final int MAX_K = 4;
+
+    public static final double DEFAULT_EXPECTED_ATTEMPTS = 4;
+
+    // A false positive rate planning no check bits (q is exactly the value width), for key sets
+    // that are only ever asked for their own keys; every lookup then returns some value
+    public static final double RETRIEVAL_ONLY = 1;
+
+    // Calibrated per-attempt success rates (about 1, 2, 4 and 16 expected attempts)
+    static final double[] SUCCESS_RATES = { 0.95, 0.5, 0.25, 0.0625 };
+    static final int MAX_LOG_KEYS = 16;
+
+    // Fewest slots per key for SLOTS_PER_KEY[k - MIN_K][log2(n)][i] to peel with SUCCESS_RATES[i]
+    private static final double[][][] SLOTS_PER_KEY = {
+        { // k=2
+            { 1.000, 1.000, 1.000, 1.000 }, // n=1
+            { 3.500, 1.000, 1.000, 1.000 }, // n=2
+            { 4.000, 1.500, 1.000, 1.000 }, // n=4
+            { 4.500, 1.625, 1.250, 1.125 }, // n=8
+            { 5.063, 1.813, 1.438, 1.188 }, // n=16
+            { 6.125, 2.000, 1.594, 1.344 }, // n=32
+            { 6.672, 2.079, 1.719, 1.454 }, // n=64
+            { 5.250, 2.125, 1.821, 1.586 }, // n=128
+            { 5.965, 2.192, 1.864, 1.625 }, // n=256
+            { 5.006, 2.125, 1.911, 1.737 }, // n=512
+            { 4.947, 2.179, 1.972, 1.803 }, // n=1024
+            { 5.391, 2.201, 1.969, 1.853 }, // n=2048
+            { 3.965, 2.179, 2.036, 1.871 }, // n=4096
+            { 5.002, 2.189, 2.017, 1.918 }, // n=8192
+            { 5.537, 2.266, 2.063, 1.948 }, // n=16384
+            { 4.491, 2.257, 2.033, 1.935 }, // n=32768
+            { 5.158, 2.125, 2.028, 1.960 }  // n=65536
+        },
+        { // k=3
+            { 1.000, 1.000, 1.000, 1.000 }, // n=1
+            { 2.500, 1.500, 1.000, 1.000 }, // n=2
+            { 2.750, 1.250, 1.250, 1.000 }, // n=4
+            { 2.500, 1.375, 1.250, 1.125 }, // n=8
+            { 1.938, 1.375, 1.250, 1.125 }, // n=16
+            { 1.719, 1.344, 1.250, 1.157 }, // n=32
+            { 1.563, 1.297, 1.235, 1.188 }, // n=64
+            { 1.391, 1.266, 1.227, 1.180 }, // n=128
+            { 1.325, 1.250, 1.227, 1.192 }, // n=256
+            { 1.295, 1.243, 1.225, 1.200 }, // n=512
+            { 1.266, 1.231, 1.221, 1.205 }, // n=1024
+            { 1.252, 1.230, 1.222, 1.209 }, // n=2048
+            { 1.243, 1.227, 1.219, 1.214 }, // n=4096
+            { 1.239, 1.225, 1.219, 1.213 }, // n=8192
+            { 1.233, 1.224, 1.221, 1.215 }, // n=16384
+            { 1.229, 1.223, 1.220, 1.217 }, // n=32768
+            { 1.227, 1.223, 1.221, 1.219 }  // n=65536
+        },
+        { // k=4
+            { 1.000, 1.000, 1.000, 1.000 }, // n=1
+            { 2.500, 1.500, 1.500, 1.000 }, // n=2
+            { 2.500, 1.500, 1.250, 1.250 }, // n=4
+            { 2.000, 1.500, 1.375, 1.250 }, // n=8
+            { 1.813, 1.438, 1.375, 1.250 }, // n=16
+            { 1.625, 1.375, 1.313, 1.250 }, // n=32
+            { 1.485, 1.344, 1.313, 1.250 }, // n=64
+            { 1.422, 1.329, 1.305, 1.274 }, // n=128
+            { 1.383, 1.325, 1.301, 1.274 }, // n=256
+            { 1.358, 1.311, 1.293, 1.272 }, // n=512
+            { 1.337, 1.305, 1.293, 1.279 }, // n=1024
+            { 1.322, 1.303, 1.292, 1.280 }, // n=2048
+            { 1.315, 1.299, 1.295, 1.286 }, // n=4096
+            { 1.309, 1.297, 1.293, 1.289 }, // n=8192
+            { 1.304, 1.297, 1.293, 1.290 }, // n=16384
+            { 1.301, 1.297, 1.293, 1.289 }, // n=32768
+            { 1.300, 1.296, 1.295, 1.292 }  // n=65536
+        }
+    };
+
+    private final int keyCount;
+    private final int valueBits;
+    private final int m;
+    private final int k;
+    private final int q;
+    private final double expectedAttempts;
+
+    private BloomierParameters(int keyCount, int valueBits, int m, int k, int q,
+                               double expectedAttempts) {
+        this.keyCount = keyCount;
+        this.valueBits = valueBits;
+        this.m = m;
+        this.k = k;
+        this.q = q;
+        this.expectedAttempts = expectedAttempts;
+    }
+
+    public static BloomierParameters plan(int keyCount, int valueBits, double falsePositiveRate) {
+        return plan(keyCount, valueBits, falsePositiveRate, DEFAULT_EXPECTED_ATTEMPTS);
+    }
+
+    // A budget below the smallest calibrated one (about 1.05 attempts) gets the smallest one
+    public static BloomierParameters plan(int keyCount, int valueBits, double falsePositiveRate,
+                                          double maxExpectedAttempts) {
+        if (keyCount < 0 || valueBits < 0) {
+            throw new IllegalArgumentException("Invalid key count (" + keyCount
+                                               + ") or value width (" + valueBits + ")");
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate <= 1)) {
+            throw new IllegalArgumentException("False positive rate must be in (0, 1] (was "
+                                               + falsePositiveRate + ")");
+        }
+
+        int level = 0;
+        while (level + 1 < SUCCESS_RATES.length
+               && 1 / SUCCESS_RATES[level + 1] <= maxExpectedAttempts) {
+            level++;
+        }
+
+        // q is the same for every k, so the smallest m is also the smallest table; ties go to the
+        // smaller k, which is cheaper to look up
+        int bestM = Integer.MAX_VALUE;
+        int bestK = MIN_K;
+        for (int k = MIN_K; k <= MAX_K; k++) {
+            int m = getM(keyCount, k, level);
+            if (m < bestM) {
+                bestM = m;
+                bestK = k;
+            }
+        }
+
+        int q = valueBits + checkBitsFor(falsePositiveRate);
+        return new BloomierParameters(keyCount, valueBits, bestM, bestK, q,
+                                      1 / SUCCESS_RATES[level]);
+    }
+
+    // Bits past the value needed for non-members to pass with at most the given probability
+    public static int checkBitsFor(double falsePositiveRate) {
+        int bits = 0;
+        while (Math.pow(2, -bits) > falsePositiveRate) {
+            bits++;
+        }
+        return bits;
+    }
+
+    private static int getM(int keyCount, int k, int level) {
+        if (keyCount <= 1) {
+            return 1;
+        }
+
+        // Key counts between two calibrated rows take the bigger of the two
+        int lower = 31 - Integer.numberOfLeadingZeros(keyCount);
+        int upper = Integer.bitCount(keyCount) == 1 ? lower : lower + 1;
+        double[][] rows = SLOTS_PER_KEY[k - MIN_K];
+        double slotsPerKey = Math.max(rows[Math.min(lower, MAX_LOG_KEYS)][level],
+                                      rows[Math.min(upper, MAX_LOG_KEYS)][level]);
+        if (upper > MAX_LOG_KEYS) {
+            // Past the table the peeling threshold sharpens (towards 1.222 slots per key for k=3):
+            // just above it success becomes certain, but just below it becomes impossible, so stay
+            // at or above the last row's even odds
+            slotsPerKey = Math.max(slotsPerKey, rows[MAX_LOG_KEYS][1]);
+        }
+
+        return (int) Math.min(Integer.MAX_VALUE, (long) Math.ceil(keyCount * slotsPerKey));
+    }
+
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    public int getValueBits() {
+        return valueBits;
+    }
+
+    public int getM() {
+        return m;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public int getQ() {
+        return q;
+    }
+
+    // Bits of each entry past the value (e.g. an ImmutableBloomierFilter's fingerprint bits)
+    public int getCheckBits() {
+        return q - valueBits;
+    }
+
+    public double getFalsePositiveRate() {
+        return Math.pow(2, -getCheckBits());
+    }
+
+    // Expected hash seed attempts before construction succeeds
+    public double getExpectedAttempts() {
+        return expectedAttempts;
+    }
+
+    public int getTableBytes() {
+        return ImmutableBloomierFilter.getFlatTableLength(m, q);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BloomierParameters (n=%d; m=%d; k=%d; q=%d; expectedAttempts=%.2f)",
+                             keyCount, m, k, q, expectedAttempts);
+    }
+}
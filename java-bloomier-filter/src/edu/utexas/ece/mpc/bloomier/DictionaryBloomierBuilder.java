@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamily;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.internal.BitPackedTable;
+import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.DictionaryValueCodec;
+import edu.utexas.ece.mpc.bloomier.internal.OverflowStash;
+import edu.utexas.ece.mpc.bloomier.internal.ValueCodec;
+
+/**
+ * A BloomierBuilder of DictionaryBloomierFilters. Each build takes its dictionary from the map's
+ * values, so on top of the filter and its table a rebuild allocates the dictionary (and an array
+ * of the map's values while collecting it). q is the whole entry; whatever the index leaves over
+ * is fingerprint.
+ */
+public class DictionaryBloomierBuilder<K> extends BloomierBuilder<K, Integer> {
+
+    public DictionaryBloomierBuilder(HashFamily hashFamily, KeyFunnel<? super K> keyFunnel) {
+        super((ValueCodec<Integer>) null, hashFamily, keyFunnel); // every build brings its codec
+    }
+
+    @Override
+    public DictionaryBloomierFilter<K> build(Map<K, Integer> map, int m, int k, int q,
+                                             long hashSeedHint) {
+        try {
+            return build(map, m, k, q, false, 0, hashSeedHint);
+        } catch (TimeoutException e) {
+            throw new AssertionError("Should never be possible");
+        }
+    }
+
+    @Override
+    public DictionaryBloomierFilter<K> build(Map<K, Integer> map, int m, int k, int q,
+                                             int timeoutMs, long hashSeedHint)
+            throws TimeoutException {
+        return build(map, m, k, q, true, timeoutMs, hashSeedHint);
+    }
+
+    // The fingerprint is always what the index leaves of q
+    @Override
+    public DictionaryBloomierFilter<K> build(Map<K, Integer> map, int m, int k, int q,
+                                             int fingerprintBits, int timeoutMs,
+                                             long hashSeedHint) throws TimeoutException {
+        DictionaryValueCodec codec = DictionaryValueCodec.forValues(map.values());
+        if (fingerprintBits != q - codec.getIndexBits()) {
+            throw new IllegalArgumentException("Dictionary filters use the q - "
+                                               + codec.getIndexBits() + " bits past the index as"
+                                               + " fingerprint (was " + fingerprintBits + ")");
+        }
+        return build(map, m, k, q, codec, true, timeoutMs, hashSeedHint);
+    }
+
+    // With m, k and q from a BloomierParameters plan for the map's index bits (see
+    // DictionaryValueCodec.indexBitsFor)
+    @Override
+    public DictionaryBloomierFilter<K> build(Map<K, Integer> map, BloomierParameters parameters,
+                                             long hashSeedHint) {
+        return build(map, parameters.getM(), parameters.getK(), parameters.getQ(), hashSeedHint);
+    }
+
+    private DictionaryBloomierFilter<K> build(Map<K, Integer> map, int m, int k, int q,
+                                              boolean hasDeadline, int timeoutMs,
+                                              long hashSeedHint) throws TimeoutException {
+        return build(map, m, k, q, DictionaryValueCodec.forValues(map.values()), hasDeadline,
+                     timeoutMs, hashSeedHint);
+    }
+
+    private DictionaryBloomierFilter<K> build(Map<K, Integer> map, int m, int k, int q,
+                                              DictionaryValueCodec codec, boolean hasDeadline,
+                                              int timeoutMs, long hashSeedHint)
+            throws TimeoutException {
+        int fingerprintBits = DictionaryBloomierFilter.fingerprintBits(q, codec);
+        return (DictionaryBloomierFilter<K>) build(map, m, k, q, codec, fingerprintBits,
+                                                   hasDeadline, timeoutMs, hashSeedHint);
+    }
+
+    @Override
+    protected DictionaryBloomierFilter<K> newFilter(ValueCodec<Integer> codec,
+                                                    BloomierHasher<K> hasher,
+                                                    BitPackedTable table, int fingerprintBits,
+                                                    OverflowStash<Integer> stash) {
+        return new DictionaryBloomierFilter<K>((DictionaryValueCodec) codec, hasher, table, stash);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamily;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.DictionaryValueCodec;
+import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatch;
+import edu.utexas.ece.mpc.bloomier.internal.OverflowStash;
+import edu.utexas.ece.mpc.bloomier.internal.PackedTable;
+
+/**
+ * A filter of int values drawn from a small set (group ids, flags, enumerations), storing each as
+ * its index into a dictionary of the d distinct values that is kept with the filter. An entry is
+ * the ceil(log2 d) bit index followed by a fingerprint of the remaining q - ceil(log2 d) bits (see
+ * ImmutableBloomierFilter), so non-members pass with probability 2^-(q - ceil(log2 d)); q is
+ * usually planned with BloomierParameters for the index bits.
+ */
+public class DictionaryBloomierFilter<K> extends ImmutableBloomierFilter<K, Integer> {
+
+    // With m, k and q from a BloomierParameters plan for the codec's index bits, whose dictionary
+    // must hold every value of the map; other shapes are built with a DictionaryBloomierBuilder
+    public DictionaryBloomierFilter(Map<K, Integer> map, BloomierParameters parameters,
+                                    DictionaryValueCodec codec, HashFamily hashFamily,
+                                    KeyFunnel<? super K> keyFunnel, long hashSeedHint) {
+        this(map, parameters.getM(), parameters.getK(), parameters.getQ(), codec,
+             findWithoutTimeout(map, parameters.getM(), parameters.getK(), parameters.getQ(),
+                                hashFamily, keyFunnel, hashSeedHint));
+    }
+
+    DictionaryBloomierFilter(Map<K, Integer> map, int m, int k, int q, DictionaryValueCodec codec,
+                             OrderAndMatch<K> oam) {
+        super(map, m, k, q, fingerprintBits(q, codec), codec, oam);
+    }
+
+    // Reassembles a filter from its parts (see IntBloomierFilter's)
+    public DictionaryBloomierFilter(DictionaryValueCodec codec, BloomierHasher<K> hasher,
+                                    PackedTable table, OverflowStash<Integer> stash) {
+        super(codec, hasher, table, fingerprintBits(table.getWidth(), codec), stash);
+    }
+
+    public DictionaryBloomierFilter(DictionaryBloomierFilter<K> orig) {
+        super(orig);
+    }
+
+    // Builds the filter on the executor; the map must not change until the build completes
+    public static <K> BloomierBuildFuture<DictionaryBloomierFilter<K>> buildAsync(
+            final Map<K, Integer> map, final int m, final int k, final int q,
+            final DictionaryValueCodec codec, final HashFamily hashFamily,
+            final KeyFunnel<? super K> keyFunnel, final long hashSeedHint, Executor executor) {
+        fingerprintBits(q, codec);
+
+        BloomierBuildFuture.Build<DictionaryBloomierFilter<K>> build;
+        build = new BloomierBuildFuture.Build<DictionaryBloomierFilter<K>>() {
+
+            @Override
+            public DictionaryBloomierFilter<K> run(BloomierBuildFuture<DictionaryBloomierFilter<K>> progress)
+                    throws Exception {
+                OrderAndMatch<K> oam = progress.search(map, m, k, q, hashFamily, keyFunnel,
+                                                       hashSeedHint);
+                return new DictionaryBloomierFilter<K>(map, m, k, q, codec, oam);
+            }
+        };
+        return BloomierBuildFuture.submit(executor, build);
+    }
+
+    @Override
+    public int getEngineId() {
+        return RetrievalEngines.BLOOMIER_DICTIONARY;
+    }
+
+    // The distinct values, in index order
+    public int[] getDictionary() {
+        return getDictionaryCodec().getDictionary();
+    }
+
+    public DictionaryValueCodec getDictionaryCodec() {
+        return (DictionaryValueCodec) codec;
+    }
+
+    // Every bit past the index is fingerprint
+    static int fingerprintBits(int q, DictionaryValueCodec codec) {
+        if (q < codec.getIndexBits()) {
+            throw new IllegalArgumentException("Dictionary entries need q >= "
+                                               + codec.getIndexBits() + " for " + codec.size()
+                                               + " values (q=" + q + ")");
+        }
+        return q - codec.getIndexBits();
+    }
+}
@@ -11,174 +11,334 @@
 
 package edu.utexas.ece.mpc.bloomier;
 
-import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeoutException;
 
-import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.ObjectBuffer;
-import com.esotericsoftware.kryo.SerializationException;
-
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.hash.HashFamily;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+import edu.utexas.ece.mpc.bloomier.internal.BitPackedTable;
 import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.KryoValueCodec;
+import edu.utexas.ece.mpc.bloomier.internal.LookupScratch;
 import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatch;
 import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatchFinder;
+import edu.utexas.ece.mpc.bloomier.internal.OverflowStash;
+import edu.utexas.ece.mpc.bloomier.internal.PackedTable;
+import edu.utexas.ece.mpc.bloomier.internal.ValueCodec;
 
-public class ImmutableBloomierFilter<K, V> {
-    protected final Kryo kryo;
-    protected final ObjectBuffer kryoSerializer;
-
+public class ImmutableBloomierFilter<K, V> implements RetrievalStructure<K, V> {
+    protected final ValueCodec<V> codec;
     protected final Class<V> valueClass;
 
     protected final int m;
     protected final int k;
     protected final int q;
 
-    protected long hashSeed;
-    protected BloomierHasher<K> hasher;
-
-    protected byte[][] table;
-    protected int tableEntrySize;
+    protected final HashFamily hashFamily;
+    protected final long hashSeed;
+    protected final BloomierHasher<K> hasher;
 
-    private ImmutableBloomierFilter(int m, int k, int q, Class<V> valueClass) {
-        kryo = new Kryo();
-        kryo.setRegistrationOptional(true);
-        kryoSerializer = new ObjectBuffer(kryo, DEFAULT_OBJECT_BUFFER_INITIAL_SIZE,
-                                          Integer.MAX_VALUE);
+    // Each slot is exactly q bits, packed back to back; tableEntrySize is the number of bytes an
+    // entry occupies once unpacked (its q bits followed by zero padding)
+    protected final PackedTable table;
+    protected final int tableEntrySize;
 
-        this.m = m;
-        this.k = k;
-        this.q = q;
+    // The last fingerprintBits bits of every entry are left zero before masking (see get())
+    protected final int fingerprintBits;
 
-        this.valueClass = valueClass;
-
-        // Create table with correctly sized byte arrays for encoded entries
-        tableEntrySize = q / 8; // FIXME: why isn't this + 1?!
-        table = new byte[m][tableEntrySize];
-
-        // The rest of the initialization will be handled by create() in public constructors
-    }
+    // Keys construction left out of the table (see BloomierBuilder.setMaxStashSize)
+    protected final OverflowStash<V> stash;
 
     public ImmutableBloomierFilter(Map<K, V> map, int m, int k, int q, Class<V> valueClass,
                                    int timeoutMs) throws TimeoutException {
-        this(m, k, q, valueClass);
-
-        OrderAndMatchFinder<K> oamf = new OrderAndMatchFinder<K>(map.keySet(), m, k, q);
-        OrderAndMatch<K> oam = oamf.find(timeoutMs);
-        create(map, oam);
+        this(map, m, k, q, valueClass,
+             new OrderAndMatchFinder<K>(map.keySet(), m, k, q).find(timeoutMs));
     }
 
     public ImmutableBloomierFilter(Map<K, V> map, int m, int k, int q, Class<V> valueClass,
                                    long hashSeedHint) {
-        this(m, k, q, valueClass);
-
-        OrderAndMatchFinder<K> oamf = new OrderAndMatchFinder<K>(map.keySet(), m, k, q,
-                                                                 hashSeedHint);
-        OrderAndMatch<K> oam;
-        try {
-            oam = oamf.find(Integer.MAX_VALUE);
-        } catch (TimeoutException e) {
-            throw new AssertionError("Should never be possible");
-        }
-        create(map, oam);
+        this(map, m, k, q, valueClass,
+             findWithoutTimeout(map, m, k, q, HashFamilies.DEFAULT, KeyFunnels.DEFAULT,
+                                hashSeedHint));
     }
 
     public ImmutableBloomierFilter(Map<K, V> map, int m, int k, int q, Class<V> valueClass,
                                    int timeoutMs, long hashSeedHint) throws TimeoutException {
-        this(m, k, q, valueClass);
+        this(map, m, k, q, valueClass,
+             new OrderAndMatchFinder<K>(map.keySet(), m, k, q, hashSeedHint).find(timeoutMs));
+    }
 
-        OrderAndMatchFinder<K> oamf = new OrderAndMatchFinder<K>(map.keySet(), m, k, q,
-                                                                 hashSeedHint);
-        OrderAndMatch<K> oam = oamf.find(timeoutMs);
-        create(map, oam);
+    // With m, k and q from a BloomierParameters plan; the plan's check bits are the fingerprint
+    // (see getFingerprintBits()), so its false positive rate holds whatever the values encode to
+    // (as long as they fit its value bits). Other shapes and options are built with a
+    // BloomierBuilder.
+    public ImmutableBloomierFilter(Map<K, V> map, BloomierParameters parameters,
+                                   Class<V> valueClass, HashFamily hashFamily,
+                                   KeyFunnel<? super K> keyFunnel, long hashSeedHint) {
+        this(map, parameters.getM(), parameters.getK(), parameters.getQ(),
+             parameters.getCheckBits(), KryoValueCodec.forClass(valueClass),
+             findWithoutTimeout(map, parameters.getM(), parameters.getK(), parameters.getQ(),
+                                hashFamily, keyFunnel, hashSeedHint));
     }
 
     // This package private constructor can be used by entities that want to supply their own OrderAndMatch
     ImmutableBloomierFilter(Map<K, V> map, int m, int k, int q, Class<V> valueClass,
                             OrderAndMatch<K> oam) {
-        this(m, k, q, valueClass);
+        this(map, m, k, q, 0, KryoValueCodec.forClass(valueClass), oam);
+    }
 
-        create(map, oam);
+    ImmutableBloomierFilter(Map<K, V> map, int m, int k, int q, int fingerprintBits,
+                            ValueCodec<V> codec, OrderAndMatch<K> oam) {
+        this(codec, hasher(oam, m, k, q),
+             create(map, oam, m, k, q, checkFingerprintBits(fingerprintBits, q), codec),
+             fingerprintBits, OverflowStash.<V> empty());
     }
 
     public ImmutableBloomierFilter(int m, int k, int q, Class<V> valueClass, long hashSeed,
                                       byte[][] table) {
-        this(m, k, q, valueClass);
+        this(KryoValueCodec.forClass(valueClass), new BloomierHasher<K>(hashSeed, m, k, q),
+             pack(table, m, q), 0, OverflowStash.<V> empty());
+    }
 
-        this.hashSeed = hashSeed;
+    // Every other constructor ends up here; it also reassembles a filter from its parts, e.g. a
+    // table received or read back with new BitPackedTable(m, q, bytes) or
+    // ByteBufferPackedTable.slice (which is used as is, not copied) and a hasher made with the
+    // same family, funnel, seed, m, k and q. All state is final so that, once constructed, a
+    // filter can be read by any number of threads without locking. The codec, hasher and table
+    // are only referenced, so copies share them (the codec is also shared with every filter of its
+    // value type).
+    public ImmutableBloomierFilter(ValueCodec<V> codec, BloomierHasher<K> hasher,
+                                   PackedTable table, int fingerprintBits,
+                                   OverflowStash<V> stash) {
+        m = table.getM();
+        k = hasher.getK();
+        q = table.getWidth();
+
+        this.codec = codec;
+        valueClass = codec.getValueClass();
+
+        hashFamily = hasher.getHashFamily();
+        hashSeed = hasher.getHashSeed();
+        this.hasher = hasher;
         this.table = table;
 
-        hasher = new BloomierHasher<K>(hashSeed, m, k, q);
+        // Entries hold exactly q bits; encoded values must fit among them and the remaining (zero)
+        // bits are what detects false positives
+        tableEntrySize = BitPackedTable.entryBytes(q);
+        this.fingerprintBits = checkFingerprintBits(fingerprintBits, q);
+        this.stash = stash;
     }
 
     public ImmutableBloomierFilter(ImmutableBloomierFilter<K, V> orig) {
-        this(orig.m, orig.k, orig.q, orig.valueClass, orig.hashSeed, orig.table); // TODO: it should be okay to share
-                                                                                  // the underlying table since it's
-                                                                                  // immutable, but beware this might
-                                                                                  // not be true
+        // The table is never modified after construction, so it can be shared
+        this(orig.codec, orig.hasher, orig.table, orig.fingerprintBits, orig.stash);
+    }
+
+    // A fingerprint is compared as one word and must leave at least a bit for the value
+    static int checkFingerprintBits(int fingerprintBits, int q) {
+        if (fingerprintBits < 0 || fingerprintBits > Long.SIZE || fingerprintBits >= q) {
+            throw new IllegalArgumentException("Fingerprint bits must be in [0, min(64, q - 1)]"
+                                               + " (was " + fingerprintBits + "; q=" + q + ")");
+        }
+        return fingerprintBits;
+    }
+
+    // Builds the filter on the executor; the map must not change until the build completes
+    public static <K, V> BloomierBuildFuture<ImmutableBloomierFilter<K, V>> buildAsync(
+            final Map<K, V> map, final int m, final int k, final int q, final Class<V> valueClass,
+            final HashFamily hashFamily, final long hashSeedHint, Executor executor) {
+        BloomierBuildFuture.Build<ImmutableBloomierFilter<K, V>> build;
+        build = new BloomierBuildFuture.Build<ImmutableBloomierFilter<K, V>>() {
+
+            @Override
+            public ImmutableBloomierFilter<K, V> run(BloomierBuildFuture<ImmutableBloomierFilter<K, V>> progress)
+                    throws Exception {
+                OrderAndMatch<K> oam = progress.search(map, m, k, q, hashFamily,
+                                                       KeyFunnels.DEFAULT, hashSeedHint);
+                return new ImmutableBloomierFilter<K, V>(map, m, k, q, valueClass, oam);
+            }
+        };
+        return BloomierBuildFuture.submit(executor, build);
+    }
+
+    static <K, V> OrderAndMatch<K> findWithoutTimeout(Map<K, V> map, int m, int k, int q,
+                                                     HashFamily hashFamily,
+                                                     KeyFunnel<? super K> keyFunnel,
+                                                     long hashSeedHint) {
+        OrderAndMatchFinder<K> oamf = new OrderAndMatchFinder<K>(map.keySet(), m, k, q,
+                                                                 hashFamily, keyFunnel,
+                                                                 hashSeedHint);
+        try {
+            return oamf.find(Integer.MAX_VALUE);
+        } catch (TimeoutException e) {
+            throw new AssertionError("Should never be possible");
+        }
     }
 
-    private void create(Map<K, V> map, OrderAndMatch<K> oam) {
-        hashSeed = oam.getHashSeed();
-        hasher = new BloomierHasher<K>(hashSeed, m, k, q);
+    static <K> BloomierHasher<K> hasher(OrderAndMatch<K> oam, int m, int k, int q) {
+        return new BloomierHasher<K>(oam.getHashFamily(), oam.getKeyFunnel(), oam.getHashSeed(),
+                                     m, k, q);
+    }
+
+    private static <K, V> BitPackedTable create(Map<K, V> map, OrderAndMatch<K> oam, int m, int k,
+                                                int q, int fingerprintBits, ValueCodec<V> codec) {
+        BitPackedTable table = new BitPackedTable(m, q);
+        fill(table, 0, map, oam, hasher(oam, m, k, q), fingerprintBits, codec);
+        return table;
+    }
 
+    // Stores map's values in the m slots of table starting at offset, where m is the hasher's
+    static <K, V> void fill(BitPackedTable table, int offset, Map<K, V> map, OrderAndMatch<K> oam,
+                            BloomierHasher<K> hasher, int fingerprintBits, ValueCodec<V> codec) {
         List<K> pi = oam.getPi();
         List<Integer> tau = oam.getTau();
 
+        byte[] keyBuffer = new byte[BloomierHasher.KEY_LENGTH];
+        int[] neighborhood = new int[hasher.getK()];
+        byte[] mask = new byte[hasher.getMaskLength()];
+        byte[] entry = new byte[table.getEntryBytes()];
+
         for (int i = 0; i < pi.size(); i++) {
             K key = pi.get(i);
-            V value = map.get(key);
-            byte[] encodedValue = encode(value);
-
-            int[] neighborhood = hasher.getNeighborhood(key);
-            byte[] mask = hasher.getM(key);
-
-            int indexOfStorage = neighborhood[tau.get(i)];
-            byte[] valueToStore = new byte[tableEntrySize];
-
-            byteArrayXor(valueToStore, encodedValue);
-            byteArrayXor(valueToStore, mask);
+            keyBuffer = hasher.getKeyBuffer(key, keyBuffer);
+            store(table, offset, key, map.get(key), tau.get(i), hasher, fingerprintBits, codec,
+                  keyBuffer, neighborhood, mask, entry);
+        }
+    }
 
-            // TODO: Duplicate neighborhood hashes cause problems - temp fix: dedup
-            Set<Integer> neighborhoodSet = new HashSet<Integer>();
-            for (int hash: neighborhood) {
-                neighborhoodSet.add(hash);
+    // Stores one value in the slot its key was matched to (neighborhood index iota), so that the XOR
+    // of the key's neighborhood and mask recovers it. Keys must be stored in the order of pi. The
+    // remaining arguments are scratch buffers, so that filling doesn't allocate per key.
+    static <K, V> void store(BitPackedTable table, int offset, K key, V value, int iota,
+                             BloomierHasher<K> hasher, int fingerprintBits, ValueCodec<V> codec,
+                             byte[] keyBuffer, int[] neighborhood, byte[] mask, byte[] entry) {
+        hasher.hash(key, keyBuffer, neighborhood, mask);
+
+        // Codecs only write the bits of the value; the rest of the entry (fingerprint included)
+        // must be zero
+        Arrays.fill(entry, (byte) 0);
+        codec.encode(value, entry, table.getWidth() - fingerprintBits);
+        byteArrayXor(entry, mask);
+
+        for (int j = 0; j < hasher.getK(); j++) {
+            if (!BloomierHasher.isDuplicate(neighborhood, j)) {
+                table.xorEntryInto(offset + neighborhood[j], entry);
             }
+        }
 
-            for (int hash: neighborhoodSet) {
-                byteArrayXor(valueToStore, table[hash]);
-            }
+        table.setEntry(offset + neighborhood[iota], entry);
+    }
+
+    @Override
+    public V get(K key) {
+        if (stash.isEmpty()) {
+            return get(key, hasher, table, 0, fingerprintBits, codec);
+        }
 
-            table[indexOfStorage] = valueToStore;
+        // Stashed keys aren't in the table, so whatever it holds for them is garbage
+        LookupScratch scratch = LookupScratch.get();
+        hasher.hash(key, scratch);
+        int index = stash.indexOf(getStashId(scratch));
+        if (index >= 0) {
+            return stash.getValue(index);
         }
+        return getHashed(hasher, table, 0, fingerprintBits, codec, scratch);
+    }
 
-        // TODO: if hasher caches hashes, clear cache here (to reclaim memory)
+    // Id the stash would know the key just hashed into scratch by
+    protected long getStashId(LookupScratch scratch) {
+        return OverflowStash.idOf(scratch.getNeighborhood(k), k,
+                                  scratch.getMask(hasher.getMaskLength()), q);
     }
 
-    public V get(K key) {
-        int[] neighborhood = hasher.getNeighborhood(key);
-        byte[] mask = hasher.getM(key);
+    // Looks key up in the slots of table starting at offset (the hasher's m of them). Works entirely
+    // in the thread's scratch buffers; only decoding may allocate.
+    static <K, V> V get(K key, BloomierHasher<K> hasher, PackedTable table, int offset,
+                        int fingerprintBits, ValueCodec<V> codec) {
+        LookupScratch scratch = LookupScratch.get();
+        hasher.hash(key, scratch);
+        return getHashed(hasher, table, offset, fingerprintBits, codec, scratch);
+    }
 
-        byte[] resultArray = new byte[tableEntrySize];
+    // As above, for a key already hashed into scratch
+    private static <K, V> V getHashed(BloomierHasher<K> hasher, PackedTable table, int offset,
+                                      int fingerprintBits, ValueCodec<V> codec,
+                                      LookupScratch scratch) {
+        int k = hasher.getK();
+        int q = table.getWidth();
+        int tableEntrySize = table.getEntryBytes();
+
+        int[] neighborhood = scratch.getNeighborhood(k);
+        byte[] mask = scratch.getMask(hasher.getMaskLength());
+
+        // Members' fingerprint bits XOR to zero; for anything else they are as good as random, so
+        // all but 2^-fingerprintBits of the misses stop here without touching the rest of the entry
+        if (fingerprintBits > 0) {
+            int valueBits = q - fingerprintBits;
+            long fingerprint = BitPackedTable.getBits(mask, valueBits, fingerprintBits);
+            for (int i = 0; i < k; i++) {
+                if (!BloomierHasher.isDuplicate(neighborhood, i)) {
+                    fingerprint ^= table.getBits((long) (offset + neighborhood[i]) * q + valueBits,
+                                                 fingerprintBits);
+                }
+            }
+            if (fingerprint != 0) {
+                return null;
+            }
+        }
 
-        byteArrayXor(resultArray, mask);
+        // The mask is at least as long as an entry
+        byte[] resultArray = scratch.getEntry(tableEntrySize);
+        System.arraycopy(mask, 0, resultArray, 0, tableEntrySize);
 
-        // TODO: Duplicate neighborhood hashes cause problems - temp fix: dedup
-        Set<Integer> neighborhoodSet = new HashSet<Integer>();
-        for (int hash: neighborhood) {
-            neighborhoodSet.add(hash);
+        for (int i = 0; i < k; i++) {
+            if (!BloomierHasher.isDuplicate(neighborhood, i)) {
+                table.xorEntryInto(offset + neighborhood[i], resultArray);
+            }
         }
 
-        for (int hash: neighborhoodSet) {
-            byteArrayXor(resultArray, table[hash]);
+        // Mask bits past q aren't part of the entry
+        resultArray[tableEntrySize - 1] &= BitPackedTable.lastByteMask(q);
+
+        return codec.decode(resultArray, q - fingerprintBits);
+    }
+
+    // Looks up every key, storing its value (or null) in values and marking keys that weren't found
+    // in the missing bitmap (see MissingBitmap); returns the number found
+    @Override
+    public int getAll(K[] keys, V[] values, long[] missing) {
+        MissingBitmap.prepare(keys.length, values.length, missing);
+
+        int found = 0;
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = get(keys[i]);
+            if (values[i] == null) {
+                MissingBitmap.set(missing, i);
+            } else {
+                found++;
+            }
         }
+        return found;
+    }
+
+    // Values are stored in iteration order
+    @SuppressWarnings("unchecked")
+    public int getAll(Collection<? extends K> keys, V[] values, long[] missing) {
+        return getAll((K[]) keys.toArray(), values, missing);
+    }
 
-        return decode(resultArray);
+    @Override
+    public int getEngineId() {
+        return RetrievalEngines.BLOOMIER;
     }
 
+    @Override
     public int getM() {
         return m;
     }
@@ -187,57 +347,82 @@ public class ImmutableBloomierFilter<K, V> {
         return k;
     }
 
+    @Override
     public int getQ() {
         return q;
     }
 
+    // Bits of each entry given to the key's fingerprint; non-members pass them with probability
+    // 2^-getFingerprintBits()
+    public int getFingerprintBits() {
+        return fingerprintBits;
+    }
+
+    public HashFamily getHashFamily() {
+        return hashFamily;
+    }
+
+    public KeyFunnel<? super K> getKeyFunnel() {
+        return hasher.getKeyFunnel();
+    }
+
+    @Override
     public long getHashSeed() {
         return hashSeed;
     }
 
+    // Unpacks the table into one array per entry (q bits each, zero padded to getTableEntrySize()
+    // bytes); prefer getFlatTable()
     public byte[][] getTable() {
-        return table;
+        byte[][] entries = new byte[m][tableEntrySize];
+        for (int i = 0; i < m; i++) {
+            table.xorEntryInto(i, entries[i]);
+        }
+        return entries;
     }
 
-    private void byteArrayXor(byte[] resultArray, byte[] xorArray) {
-        // TODO: may want to rewrite this to more intuitively handle hetero-sized arrays
-        int length = Math.min(resultArray.length, xorArray.length);
+    // The packed bit string backing the table, ceil(m * q / 8) bytes. This is the live table (not a
+    // copy) unless the table isn't kept on the heap. Stashed keys aren't in it (see getStash()).
+    @Override
+    public byte[] getFlatTable() {
+        return BitPackedTable.getBytes(table);
+    }
 
-        for (int i = 0; i < length; i++) {
-            resultArray[i] ^= xorArray[i];
-        }
+    public OverflowStash<V> getStash() {
+        return stash;
     }
 
-    private byte[] encode(V value) {
-        byte[] serializedValue = kryoSerializer.writeObjectData(value);
-        if (serializedValue.length > tableEntrySize) {
-            throw new IllegalArgumentException("Encoded values are too big to fit in table (q=" + q
-                                               + "; must be >= " + serializedValue.length
-                                               * Byte.SIZE + ")");
-        }
+    public ValueCodec<V> getCodec() {
+        return codec;
+    }
 
-        // Pad with zeros up to required tableEntrySize
-        return Arrays.copyOf(serializedValue, tableEntrySize);
+    public PackedTable getPackedTable() {
+        return table;
     }
 
-    private V decode(byte[] value) {
-        ByteBuffer buffer = ByteBuffer.wrap(value);
-        V result;
-        try {
-            result = (V) kryo.readObjectData(buffer, valueClass);
-        } catch (SerializationException e) {
-            return null; // Serialization exception likely caused by trying to decode non existent entry
-        }
+    public int getTableEntrySize() {
+        return tableEntrySize;
+    }
 
-        // Check leftovers (all must be zero of this is a detected false positive)
-        while (buffer.hasRemaining()) {
-            if (buffer.get() != 0) {
-                return null;
-            }
-        }
+    // Length of the packed table for a filter with the given parameters
+    public static int getFlatTableLength(int m, int q) {
+        return BitPackedTable.byteLength(m, q);
+    }
 
-        return result;
+    private static BitPackedTable pack(byte[][] entries, int m, int q) {
+        BitPackedTable packed = new BitPackedTable(m, q);
+        for (int i = 0; i < entries.length; i++) {
+            packed.setEntry(i, Arrays.copyOf(entries[i], packed.getEntryBytes()));
+        }
+        return packed;
     }
 
-    private static final int DEFAULT_OBJECT_BUFFER_INITIAL_SIZE = 2 * 1024;
+    private static void byteArrayXor(byte[] resultArray, byte[] xorArray) {
+        // TODO: may want to rewrite this to more intuitively handle hetero-sized arrays
+        int length = Math.min(resultArray.length, xorArray.length);
+
+        for (int i = 0; i < length; i++) {
+            resultArray[i] ^= xorArray[i];
+        }
+    }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamily;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+import edu.utexas.ece.mpc.bloomier.internal.BitPackedTable;
+import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.IntValueCodec;
+import edu.utexas.ece.mpc.bloomier.internal.OverflowStash;
+import edu.utexas.ece.mpc.bloomier.internal.ValueCodec;
+
+/**
+ * A BloomierBuilder of IntBloomierFilters. Encoding an int allocates nothing, so rebuilding a map of
+ * no more keys than before only allocates the new filter and its table.
+ */
+public class IntBloomierBuilder<K> extends BloomierBuilder<K, Integer> {
+
+    public IntBloomierBuilder(HashFamily hashFamily) {
+        this(hashFamily, KeyFunnels.DEFAULT);
+    }
+
+    public IntBloomierBuilder(HashFamily hashFamily, KeyFunnel<? super K> keyFunnel) {
+        super(IntValueCodec.INSTANCE, hashFamily, keyFunnel);
+    }
+
+    @Override
+    public IntBloomierFilter<K> build(Map<K, Integer> map, int m, int k, int q, long hashSeedHint) {
+        IntValueCodec.checkWidth(q);
+        return (IntBloomierFilter<K>) super.build(map, m, k, q, hashSeedHint);
+    }
+
+    @Override
+    public IntBloomierFilter<K> build(Map<K, Integer> map, int m, int k, int q, int timeoutMs,
+                                      long hashSeedHint) throws TimeoutException {
+        IntValueCodec.checkWidth(q);
+        return (IntBloomierFilter<K>) super.build(map, m, k, q, timeoutMs, hashSeedHint);
+    }
+
+    // Int filters already check all q - 32 bits past the value with one compare, so they take no
+    // separate fingerprint
+    @Override
+    public IntBloomierFilter<K> build(Map<K, Integer> map, int m, int k, int q,
+                                      int fingerprintBits, int timeoutMs, long hashSeedHint)
+            throws TimeoutException {
+        if (fingerprintBits != 0) {
+            throw new IllegalArgumentException("IntBloomierFilters don't take fingerprint bits; use"
+                                               + " q = 32 + check bits instead (was "
+                                               + fingerprintBits + ")");
+        }
+        return build(map, m, k, q, timeoutMs, hashSeedHint);
+    }
+
+    // With m, k and q from a BloomierParameters plan (for Integer.SIZE bit values)
+    @Override
+    public IntBloomierFilter<K> build(Map<K, Integer> map, BloomierParameters parameters,
+                                      long hashSeedHint) {
+        return build(map, parameters.getM(), parameters.getK(), parameters.getQ(), hashSeedHint);
+    }
+
+    @Override
+    protected IntBloomierFilter<K> newFilter(ValueCodec<Integer> codec, BloomierHasher<K> hasher,
+                                             BitPackedTable table, int fingerprintBits,
+                                             OverflowStash<Integer> stash) {
+        return new IntBloomierFilter<K>(hasher, table, stash);
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamily;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+import edu.utexas.ece.mpc.bloomier.internal.BitPackedTable;
+import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.IntValueCodec;
+import edu.utexas.ece.mpc.bloomier.internal.LookupScratch;
+import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatch;
+import edu.utexas.ece.mpc.bloomier.internal.OverflowStash;
+import edu.utexas.ece.mpc.bloomier.internal.PackedTable;
+
+/**
+ * A filter storing int values as fixed width 32 bit entries rather than through kryo. Lookups read
+ * each q bit slot as a single long, so q must be between 32 and 64; the q - 32 bits past the value
+ * detect false positives (a rate of 2^-(q - 32)).
+ */
+public class IntBloomierFilter<K> extends ImmutableBloomierFilter<K, Integer> {
+    // Keys per block of a batch lookup; one word of the missing bitmap
+    private static final int BATCH_SIZE = Long.SIZE;
+
+    // With m, k and q from a BloomierParameters plan (for Integer.SIZE bit values); other shapes
+    // are built with an IntBloomierBuilder. Keys are hashed through keyFunnel (see KeyFunnels).
+    public IntBloomierFilter(Map<K, Integer> map, BloomierParameters parameters,
+                             HashFamily hashFamily, KeyFunnel<? super K> keyFunnel,
+                             long hashSeedHint) {
+        super(map, parameters.getM(), parameters.getK(), checkWidth(parameters.getQ()), 0,
+              IntValueCodec.INSTANCE,
+              findWithoutTimeout(map, parameters.getM(), parameters.getK(), parameters.getQ(),
+                                 hashFamily, keyFunnel, hashSeedHint));
+    }
+
+    IntBloomierFilter(Map<K, Integer> map, int m, int k, int q, OrderAndMatch<K> oam) {
+        super(map, m, k, checkWidth(q), 0, IntValueCodec.INSTANCE, oam);
+    }
+
+    // Reassembles a filter from its parts (see ImmutableBloomierFilter's canonical constructor),
+    // e.g. over ByteBufferPackedTable.slice of a received packet, whose bytes must not change
+    // while the filter is in use (getFlatTable() copies them out); stash holds the keys
+    // construction left out of the table (see BloomierBuilder.setMaxStashSize)
+    public IntBloomierFilter(BloomierHasher<K> hasher, PackedTable table,
+                             OverflowStash<Integer> stash) {
+        super(IntValueCodec.INSTANCE, hasher, checkWidth(table), 0, stash);
+    }
+
+    public IntBloomierFilter(IntBloomierFilter<K> orig) {
+        super(orig);
+    }
+
+    // Builds the filter on the executor; the map must not change until the build completes
+    public static <K> BloomierBuildFuture<IntBloomierFilter<K>> buildAsync(
+            Map<K, Integer> map, int m, int k, int q, HashFamily hashFamily, long hashSeedHint,
+            Executor executor) {
+        return buildAsync(map, m, k, q, hashFamily, KeyFunnels.DEFAULT, hashSeedHint, executor);
+    }
+
+    public static <K> BloomierBuildFuture<IntBloomierFilter<K>> buildAsync(
+            final Map<K, Integer> map, final int m, final int k, final int q,
+            final HashFamily hashFamily, final KeyFunnel<? super K> keyFunnel,
+            final long hashSeedHint, Executor executor) {
+        checkWidth(q);
+
+        BloomierBuildFuture.Build<IntBloomierFilter<K>> build;
+        build = new BloomierBuildFuture.Build<IntBloomierFilter<K>>() {
+
+            @Override
+            public IntBloomierFilter<K> run(BloomierBuildFuture<IntBloomierFilter<K>> progress)
+                    throws Exception {
+                OrderAndMatch<K> oam = progress.search(map, m, k, q, hashFamily, keyFunnel,
+                                                       hashSeedHint);
+                return new IntBloomierFilter<K>(map, m, k, q, oam);
+            }
+        };
+        return BloomierBuildFuture.submit(executor, build);
+    }
+
+    @Override
+    public Integer get(K key) {
+        long entry = getEntry(key);
+        return IntValueCodec.isValid(entry, q) ? Integer.valueOf(IntValueCodec.valueOf(entry, q))
+                                               : null;
+    }
+
+    // Unboxed lookup; valueIfAbsent is returned for keys that aren't found
+    public int getInt(K key, int valueIfAbsent) {
+        long entry = getEntry(key);
+        return IntValueCodec.isValid(entry, q) ? IntValueCodec.valueOf(entry, q) : valueIfAbsent;
+    }
+
+    public boolean containsKey(K key) {
+        return IntValueCodec.isValid(getEntry(key), q);
+    }
+
+    // Unboxed batch lookup: values of keys that weren't found are set to 0 and marked in the missing
+    // bitmap (see MissingBitmap); returns the number found
+    public int getAll(K[] keys, int[] values, long[] missing) {
+        MissingBitmap.prepare(keys.length, values.length, missing);
+        if (!stash.isEmpty()) {
+            return getAllOneByOne(keys, values, missing);
+        }
+
+        LookupScratch scratch = LookupScratch.get();
+        int[] slots = scratch.getBatchSlots(BATCH_SIZE * k);
+        long[] entries = scratch.getBatchWords(BATCH_SIZE);
+
+        int found = 0;
+        for (int start = 0; start < keys.length; start += BATCH_SIZE) {
+            int count = Math.min(BATCH_SIZE, keys.length - start);
+
+            // Hash the whole block before touching the table, so the gather loop below is nothing
+            // but independent table reads and XORs; duplicate slots are marked with -1
+            for (int i = 0; i < count; i++) {
+                hasher.hash(keys[start + i], scratch);
+                int[] neighborhood = scratch.getNeighborhood(k);
+                entries[i] = BitPackedTable.getBits(scratch.getMask(hasher.getMaskLength()), 0, q);
+                for (int j = 0; j < k; j++) {
+                    slots[i * k + j] = BloomierHasher.isDuplicate(neighborhood, j) ? -1
+                                                                                   : neighborhood[j];
+                }
+            }
+
+            long missingWord = 0;
+            for (int i = 0; i < count; i++) {
+                long entry = entries[i];
+                for (int j = i * k; j < (i + 1) * k; j++) {
+                    if (slots[j] >= 0) {
+                        entry ^= table.getBits((long) slots[j] * q, q);
+                    }
+                }
+
+                if (IntValueCodec.isValid(entry, q)) {
+                    values[start + i] = IntValueCodec.valueOf(entry, q);
+                    found++;
+                } else {
+                    values[start + i] = 0;
+                    missingWord |= 1L << i;
+                }
+            }
+            missing[start / BATCH_SIZE] = missingWord;
+        }
+        return found;
+    }
+
+    // Values are stored in iteration order
+    @SuppressWarnings("unchecked")
+    public int getAll(Collection<? extends K> keys, int[] values, long[] missing) {
+        return getAll((K[]) keys.toArray(), values, missing);
+    }
+
+    // The gather loop above doesn't know about stashed keys
+    private int getAllOneByOne(K[] keys, int[] values, long[] missing) {
+        int found = 0;
+        for (int i = 0; i < keys.length; i++) {
+            long entry = getEntry(keys[i]);
+            if (IntValueCodec.isValid(entry, q)) {
+                values[i] = IntValueCodec.valueOf(entry, q);
+                found++;
+            } else {
+                values[i] = 0;
+                MissingBitmap.set(missing, i);
+            }
+        }
+        return found;
+    }
+
+    // The q bit entry recovered for key, right aligned
+    private long getEntry(K key) {
+        LookupScratch scratch = LookupScratch.get();
+        hasher.hash(key, scratch);
+        if (!stash.isEmpty()) {
+            int index = stash.indexOf(getStashId(scratch));
+            if (index >= 0) {
+                // The entry the table would have held
+                return (stash.getValue(index) & 0xffffffffL) << (q - Integer.SIZE);
+            }
+        }
+
+        int[] neighborhood = scratch.getNeighborhood(k);
+
+        long entry = BitPackedTable.getBits(scratch.getMask(hasher.getMaskLength()), 0, q);
+        for (int i = 0; i < k; i++) {
+            if (!BloomierHasher.isDuplicate(neighborhood, i)) {
+                entry ^= table.getBits((long) neighborhood[i] * q, q);
+            }
+        }
+        return entry;
+    }
+
+    private static int checkWidth(int q) {
+        IntValueCodec.checkWidth(q);
+        return q;
+    }
+
+    private static PackedTable checkWidth(PackedTable table) {
+        checkWidth(table.getWidth());
+        return table;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamily;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+import edu.utexas.ece.mpc.bloomier.internal.BitPackedTable;
+import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.LongValueCodec;
+import edu.utexas.ece.mpc.bloomier.internal.LookupScratch;
+import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatchFinder;
+import edu.utexas.ece.mpc.bloomier.internal.OverflowStash;
+import edu.utexas.ece.mpc.bloomier.internal.PackedTable;
+
+/**
+ * A filter storing long values as fixed width 64 bit entries rather than through kryo. q must be
+ * between 64 and 128; the q - 64 bits past the value detect false positives.
+ */
+public class LongBloomierFilter<K> extends ImmutableBloomierFilter<K, Long> {
+    // Keys per block of a batch lookup; one word of the missing bitmap
+    private static final int BATCH_SIZE = Long.SIZE;
+    public LongBloomierFilter(Map<K, Long> map, int m, int k, int q, HashFamily hashFamily,
+                              long hashSeedHint) {
+        super(map, m, k, checkWidth(q), 0, LongValueCodec.INSTANCE,
+              findWithoutTimeout(map, m, k, q, hashFamily, KeyFunnels.DEFAULT, hashSeedHint));
+    }
+
+    public LongBloomierFilter(Map<K, Long> map, int m, int k, int q, HashFamily hashFamily,
+                              int timeoutMs, long hashSeedHint) throws TimeoutException {
+        super(map, m, k, checkWidth(q), 0, LongValueCodec.INSTANCE,
+              new OrderAndMatchFinder<K>(map.keySet(), m, k, q, hashFamily, hashSeedHint)
+                      .find(timeoutMs));
+    }
+
+    // Reassembles a filter from its parts (see ImmutableBloomierFilter's canonical constructor)
+    public LongBloomierFilter(BloomierHasher<K> hasher, PackedTable table) {
+        super(LongValueCodec.INSTANCE, hasher, checkWidth(table), 0,
+              OverflowStash.<Long> empty());
+    }
+
+    public LongBloomierFilter(LongBloomierFilter<K> orig) {
+        super(orig);
+    }
+
+    @Override
+    public Long get(K key) {
+        long[] words = LookupScratch.get().getWords();
+        return getEntry(key, words) ? Long.valueOf(words[0]) : null;
+    }
+
+    // Unboxed lookup; valueIfAbsent is returned for keys that aren't found
+    public long getLong(K key, long valueIfAbsent) {
+        long[] words = LookupScratch.get().getWords();
+        return getEntry(key, words) ? words[0] : valueIfAbsent;
+    }
+
+    public boolean containsKey(K key) {
+        return getEntry(key, LookupScratch.get().getWords());
+    }
+
+    // Unboxed batch lookup: values of keys that weren't found are set to 0 and marked in the missing
+    // bitmap (see MissingBitmap); returns the number found
+    public int getAll(K[] keys, long[] values, long[] missing) {
+        MissingBitmap.prepare(keys.length, values.length, missing);
+
+        LookupScratch scratch = LookupScratch.get();
+        int[] slots = scratch.getBatchSlots(BATCH_SIZE * k);
+        long[] words = scratch.getBatchWords(2 * BATCH_SIZE); // value and check word per key
+        int checkBits = q - Long.SIZE;
+
+        int found = 0;
+        for (int start = 0; start < keys.length; start += BATCH_SIZE) {
+            int count = Math.min(BATCH_SIZE, keys.length - start);
+
+            // Hash the whole block before touching the table (see IntBloomierFilter.getAll())
+            for (int i = 0; i < count; i++) {
+                hasher.hash(keys[start + i], scratch);
+                int[] neighborhood = scratch.getNeighborhood(k);
+                byte[] mask = scratch.getMask(hasher.getMaskLength());
+                words[2 * i] = BitPackedTable.getBits(mask, 0, Long.SIZE);
+                words[2 * i + 1] = BitPackedTable.getBits(mask, Long.SIZE, checkBits);
+                for (int j = 0; j < k; j++) {
+                    slots[i * k + j] = BloomierHasher.isDuplicate(neighborhood, j) ? -1
+                                                                                   : neighborhood[j];
+                }
+            }
+
+            long missingWord = 0;
+            for (int i = 0; i < count; i++) {
+                long entry = words[2 * i];
+                long check = words[2 * i + 1];
+                for (int j = i * k; j < (i + 1) * k; j++) {
+                    if (slots[j] >= 0) {
+                        long offset = (long) slots[j] * q;
+                        entry ^= table.getBits(offset, Long.SIZE);
+                        check ^= table.getBits(offset + Long.SIZE, checkBits);
+                    }
+                }
+
+                if (check == 0) {
+                    values[start + i] = entry;
+                    found++;
+                } else {
+                    values[start + i] = 0;
+                    missingWord |= 1L << i;
+                }
+            }
+            missing[start / BATCH_SIZE] = missingWord;
+        }
+        return found;
+    }
+
+    // Values are stored in iteration order
+    @SuppressWarnings("unchecked")
+    public int getAll(Collection<? extends K> keys, long[] values, long[] missing) {
+        return getAll((K[]) keys.toArray(), values, missing);
+    }
+
+    // Stores the 64 value bits recovered for key in value[0] and returns whether the check bits
+    // accept them
+    private boolean getEntry(K key, long[] value) {
+        LookupScratch scratch = LookupScratch.get();
+        hasher.hash(key, scratch);
+        int[] neighborhood = scratch.getNeighborhood(k);
+        byte[] mask = scratch.getMask(hasher.getMaskLength());
+
+        int checkBits = q - Long.SIZE;
+        long entry = BitPackedTable.getBits(mask, 0, Long.SIZE);
+        long check = BitPackedTable.getBits(mask, Long.SIZE, checkBits);
+        for (int i = 0; i < k; i++) {
+            if (!BloomierHasher.isDuplicate(neighborhood, i)) {
+                long offset = (long) neighborhood[i] * q;
+                entry ^= table.getBits(offset, Long.SIZE);
+                check ^= table.getBits(offset + Long.SIZE, checkBits);
+            }
+        }
+
+        value[0] = entry;
+        return check == 0;
+    }
+
+    private static int checkWidth(int q) {
+        LongValueCodec.checkWidth(q);
+        return q;
+    }
+
+    private static PackedTable checkWidth(PackedTable table) {
+        checkWidth(table.getWidth());
+        return table;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+package edu.utexas.ece.mpc.bloomier;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.ByteBufferPackedTable;
+import edu.utexas.ece.mpc.bloomier.internal.KryoValueCodec;
+import edu.utexas.ece.mpc.bloomier.internal.OverflowStash;
+
+/**
+ * A read-only bloomier filter whose table stays in a file written by BloomierFilterFile and is
+ * memory mapped rather than loaded. Opening costs only the header read, the table is shared
+ * through the page cache with every other process mapping the same file, and nothing but the
+ * filter object itself lives on the heap.
+ */
+public class MappedBloomierFilter<K, V> extends ImmutableBloomierFilter<K, V> {
+    private final File file;
+
+    public MappedBloomierFilter(File file, Class<V> valueClass) throws IOException {
+        this(file, map(file), valueClass);
+    }
+
+    private MappedBloomierFilter(File file, Mapping mapping, Class<V> valueClass) {
+        super(KryoValueCodec.forClass(valueClass),
+              new BloomierHasher<K>(mapping.header.getHashFamily(),
+                                    MappedBloomierFilter.<K> keyFunnel(mapping.header),
+                                    mapping.header.getHashSeed(), mapping.header.getM(),
+                                    mapping.header.getK(), mapping.header.getQ()),
+              mapping.table, mapping.header.getFingerprintBits(), OverflowStash.<V> empty());
+
+        this.file = file;
+    }
+
+    // The file only records the funnel's id, so the key type can't be checked against it
+    @SuppressWarnings("unchecked")
+    private static <K> KeyFunnel<? super K> keyFunnel(BloomierFilterFile header) {
+        return (KeyFunnel<? super K>) header.getKeyFunnel();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private static Mapping map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // Mappings stay valid after the channel is closed
+            FileChannel channel = raf.getChannel();
+            BloomierFilterFile header = BloomierFilterFile.readHeader(channel);
+
+            long length = header.getTableLength();
+            long chunkSize = ByteBufferPackedTable.CHUNK_SIZE;
+            ByteBuffer[] chunks = new ByteBuffer[(int) ((length + chunkSize - 1) / chunkSize)];
+            for (int i = 0; i < chunks.length; i++) {
+                long offset = i * chunkSize;
+                chunks[i] = channel.map(MapMode.READ_ONLY, BloomierFilterFile.HEADER_SIZE + offset,
+                                        Math.min(chunkSize, length - offset));
+            }
+
+            return new Mapping(header, new ByteBufferPackedTable(header.getM(), header.getQ(),
+                                                                 chunks));
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static class Mapping {
+        final BloomierFilterFile header;
+        final ByteBufferPackedTable table;
+
+        Mapping(BloomierFilterFile header, ByteBufferPackedTable table) {
+            this.header = header;
+            this.table = table;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.Arrays;
+
+/**
+ * Helpers for the bitmaps filled in by the getAll() batch lookups: bit i (bit i % 64 of word i / 64)
+ * is set when keys[i] wasn't found.
+ */
+public final class MissingBitmap {
+    private MissingBitmap() {
+        // Static helpers only
+    }
+
+    // Number of words needed to mark n keys
+    public static int words(int n) {
+        return (n + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    public static long[] create(int n) {
+        return new long[words(n)];
+    }
+
+    public static boolean isMissing(long[] missing, int i) {
+        return (missing[i >>> 6] & (1L << i)) != 0;
+    }
+
+    static void set(long[] missing, int i) {
+        missing[i >>> 6] |= 1L << i;
+    }
+
+    // Validates the arrays handed to a batch lookup of n keys and clears the bitmap
+    static void prepare(int n, int valuesLength, long[] missing) {
+        if (valuesLength < n) {
+            throw new IllegalArgumentException("Values array too small (" + valuesLength + " < " + n
+                                               + ")");
+        }
+        if (missing.length < words(n)) {
+            throw new IllegalArgumentException("Missing bitmap too small (" + missing.length
+                                               + " words < " + words(n) + ")");
+        }
+        Arrays.fill(missing, 0, words(n), 0);
+    }
+}
@@ -11,72 +11,281 @@
 
 package edu.utexas.ece.mpc.bloomier;
 
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeoutException;
 
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.hash.HashFamily;
 import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.LookupScratch;
 import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatch;
 import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatchFinder;
 
+/**
+ * A filter whose values can be changed in place, and whose keys can be added and removed. Keys are
+ * split into buckets by a top level hash (as in ShardedBloomierFilter), each bucket an independent
+ * Bloomier filter mapping its keys to value slots. New keys wait in a small per-bucket stash; once
+ * a bucket's stash (or its count of removed keys) outgrows a fraction of the bucket, only that
+ * bucket is rebuilt.
+ */
 public class MutableBloomierFilter<K, V> {
-    private ImmutableBloomierFilter<K, Integer> tauTable;
-    private V[] valueTable;
+    // Buckets are sized so that rebuilding one stays cheap
+    public static final int DEFAULT_BUCKET_KEYS = 1024;
 
-    private long hashSeed;
-    private BloomierHasher<K> hasher;
+    // A bucket is rebuilt once its stash or removals reach 1/STASH_FRACTION of its keys (or
+    // MIN_STASH, for small buckets)
+    private static final int STASH_FRACTION = 8;
+    private static final int MIN_STASH = 16;
 
-    private List<K> pi;
-    private List<Integer> tau;
+    private final int k;
+    private final int q;
+    private final HashFamily hashFamily;
+    private final double slotsPerKey;
+    private final long timeoutMs;
+
+    private final BloomierHasher<K> bucketHasher;
+    private final Bucket[] buckets;
 
-    @SuppressWarnings("unchecked")
     public MutableBloomierFilter(Map<K, V> map, int m, int k, int q, long timeoutMs)
             throws TimeoutException {
-        OrderAndMatchFinder<K> oamf = new OrderAndMatchFinder<K>(map.keySet(), m, k, q);
-        OrderAndMatch<K> oam = oamf.find(timeoutMs);
-
-        valueTable = (V[]) new Object[m];
+        this(map, m, k, q, HashFamilies.DEFAULT, timeoutMs);
+    }
 
-        hashSeed = oam.getHashSeed();
-        hasher = new BloomierHasher<K>(hashSeed, m, k, q);
+    public MutableBloomierFilter(Map<K, V> map, int m, int k, int q, HashFamily hashFamily,
+                                 long timeoutMs) throws TimeoutException {
+        this(map, m, k, q, hashFamily, timeoutMs,
+             Math.max(1, map.size() / DEFAULT_BUCKET_KEYS));
+    }
 
-        pi = oam.getPi();
-        tau = oam.getTau();
+    // m is the total number of slots for the initial keys; buckets keep the same ratio of slots to
+    // keys as they grow and shrink. timeoutMs bounds the initial build and each bucket rebuild.
+    public MutableBloomierFilter(Map<K, V> map, int m, int k, int q, HashFamily hashFamily,
+                                 long timeoutMs, int bucketCount) throws TimeoutException {
+        if (bucketCount < 1) {
+            throw new IllegalArgumentException("Need at least one bucket (buckets=" + bucketCount
+                                               + ")");
+        }
 
-        Map<K, Integer> tauMap = new HashMap<K, Integer>();
-        for (int i = 0; i < pi.size(); i++) {
-            K key = pi.get(i);
-            V value = map.get(key);
+        this.k = k;
+        this.q = q;
+        this.hashFamily = hashFamily;
+        this.timeoutMs = timeoutMs;
+        slotsPerKey = map.isEmpty() ? 1.0 * m : (double) m / map.size();
 
-            int iota = tau.get(i);
-            tauMap.put(key, iota);
+        bucketHasher = new BloomierHasher<K>(hashFamily, ShardedBloomierFilter.SHARD_SEED,
+                                             bucketCount, 1, 0);
 
-            int hashIndex = hasher.getNeighborhood(key)[iota];
-            valueTable[hashIndex] = value;
+        buckets = newBucketArray(bucketCount);
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new Bucket();
+        }
+        for (Map.Entry<K, V> entry: map.entrySet()) {
+            getBucket(entry.getKey()).stash.put(entry.getKey(), entry.getValue());
+        }
+        for (Bucket bucket: buckets) {
+            bucket.rebuild(Long.MIN_VALUE);
         }
-
-        tauTable = new ImmutableBloomierFilter<K, Integer>(tauMap, m, k, q, Integer.class, oam);
     }
 
     public V get(K key) {
-        Integer iota = tauTable.get(key);
-        if (iota == null) {
-            return null;
+        return getBucket(key).get(key);
+    }
+
+    // See ImmutableBloomierFilter.getAll()
+    public int getAll(K[] keys, V[] values, long[] missing) {
+        MissingBitmap.prepare(keys.length, values.length, missing);
+
+        int found = 0;
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = get(keys[i]);
+            if (values[i] == null) {
+                MissingBitmap.set(missing, i);
+            } else {
+                found++;
+            }
         }
+        return found;
+    }
 
-        Integer hashIndex = hasher.getNeighborhood(key)[iota];
-        return valueTable[hashIndex];
+    @SuppressWarnings("unchecked")
+    public int getAll(Collection<? extends K> keys, V[] values, long[] missing) {
+        return getAll((K[]) keys.toArray(), values, missing);
     }
 
+    // Changes the value of a key already in the filter
     public void set(K key, V value) {
-        Integer iota = tauTable.get(key);
-
-        if (iota == null) {
+        if (!getBucket(key).set(key, value)) {
             throw new IllegalArgumentException("Supplied key (" + key + ") is involid");
         }
+    }
+
+    // Adds key (or changes its value if it's already in the filter)
+    public void put(K key, V value) throws TimeoutException {
+        Bucket bucket = getBucket(key);
+        if (!bucket.set(key, value)) {
+            bucket.stash.put(key, value);
+            bucket.rebuildIfNeeded();
+        }
+    }
+
+    // Removes key, returning its value (or null if it wasn't in the filter)
+    public V remove(K key) throws TimeoutException {
+        return getBucket(key).remove(key);
+    }
+
+    public boolean containsKey(K key) {
+        return getBucket(key).containsKey(key);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Bucket bucket: buckets) {
+            size += bucket.keys.size() + bucket.stash.size();
+        }
+        return size;
+    }
+
+    public int getBucketCount() {
+        return buckets.length;
+    }
+
+    // Number of bucket rebuilds since construction (not counting the initial builds)
+    public long getRebuildCount() {
+        long rebuilds = 0;
+        for (Bucket bucket: buckets) {
+            rebuilds += bucket.rebuilds;
+        }
+        return rebuilds - buckets.length;
+    }
+
+    private Bucket getBucket(K key) {
+        return buckets[ShardedBloomierFilter.getShard(key, bucketHasher)];
+    }
+
+    // Bucket is an inner class of a generic class, so its arrays can only be created raw
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Bucket[] newBucketArray(int length) {
+        return new MutableBloomierFilter.Bucket[length];
+    }
+
+    private class Bucket {
+        ImmutableBloomierFilter<K, Integer> tauTable;
+        V[] valueTable;
+        BloomierHasher<K> hasher;
+
+        // Keys encoded in tauTable (minus removed ones), and keys added since it was built
+        final Set<K> keys = new HashSet<K>();
+        final Map<K, V> stash = new HashMap<K, V>();
+        int removed;
+        long rebuilds;
+
+        V get(K key) {
+            V stashed = stash.get(key);
+            if (stashed != null) {
+                return stashed;
+            }
+
+            Integer iota = tauTable.get(key);
+            if (iota == null || iota < 0 || iota >= k) {
+                return null; // not in the bucket (a false positive can decode to any int)
+            }
+
+            return valueTable[getSlot(key, iota)];
+        }
+
+        boolean containsKey(K key) {
+            return stash.containsKey(key) || keys.contains(key);
+        }
+
+        // Returns false if key isn't in the bucket
+        boolean set(K key, V value) {
+            if (stash.containsKey(key)) {
+                stash.put(key, value);
+                return true;
+            }
+            if (!keys.contains(key)) {
+                return false;
+            }
+
+            valueTable[getSlot(key, tauTable.get(key))] = value;
+            return true;
+        }
 
-        Integer hashIndex = hasher.getNeighborhood(key)[iota];
-        valueTable[hashIndex] = value;
+        V remove(K key) throws TimeoutException {
+            if (stash.containsKey(key)) {
+                return stash.remove(key);
+            }
+            if (!keys.remove(key)) {
+                return null;
+            }
+
+            // The key stays encoded in tauTable until the next rebuild, pointing at an empty slot
+            int slot = getSlot(key, tauTable.get(key));
+            V value = valueTable[slot];
+            valueTable[slot] = null;
+
+            removed++;
+            rebuildIfNeeded();
+            return value;
+        }
+
+        void rebuildIfNeeded() throws TimeoutException {
+            int limit = Math.max(MIN_STASH, keys.size() / STASH_FRACTION);
+            if (stash.size() >= limit || removed >= limit) {
+                rebuild(hasher.getHashSeed());
+            }
+        }
+
+        // Encodes the remaining and stashed keys in a new tauTable and value table
+        @SuppressWarnings("unchecked")
+        void rebuild(long hashSeedHint) throws TimeoutException {
+            Map<K, V> map = new HashMap<K, V>(stash);
+            for (K key: keys) {
+                map.put(key, valueTable[getSlot(key, tauTable.get(key))]);
+            }
+
+            // Neighborhoods need at least k distinct slots to choose from
+            int m = (int) Math.max(k, Math.ceil(map.size() * slotsPerKey));
+            OrderAndMatchFinder<K> oamf = new OrderAndMatchFinder<K>(map.keySet(), m, k, q,
+                                                                     hashFamily, hashSeedHint);
+            OrderAndMatch<K> oam = oamf.find(timeoutMs);
+
+            BloomierHasher<K> newHasher = new BloomierHasher<K>(oam.getHashFamily(),
+                                                                oam.getHashSeed(), m, k, q);
+            V[] newValueTable = (V[]) new Object[m];
+
+            List<K> pi = oam.getPi();
+            List<Integer> tau = oam.getTau();
+            Map<K, Integer> tauMap = new HashMap<K, Integer>();
+            for (int i = 0; i < pi.size(); i++) {
+                K key = pi.get(i);
+                int iota = tau.get(i);
+                tauMap.put(key, iota);
+
+                int hashIndex = newHasher.getNeighborhood(key)[iota];
+                newValueTable[hashIndex] = map.get(key);
+            }
+
+            tauTable = new ImmutableBloomierFilter<K, Integer>(tauMap, m, k, q, Integer.class, oam);
+            valueTable = newValueTable;
+            hasher = newHasher;
+
+            keys.clear();
+            keys.addAll(map.keySet());
+            stash.clear();
+            removed = 0;
+            rebuilds++;
+        }
+
+        private int getSlot(K key, int iota) {
+            LookupScratch scratch = LookupScratch.get();
+            hasher.hash(key, scratch);
+            return scratch.getNeighborhood(k)[iota];
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+package edu.utexas.ece.mpc.bloomier;
+
+// Ids of the RetrievalStructure implementations, for identifying them in serialized form
+public class RetrievalEngines {
+    // ImmutableBloomierFilter: k slots anywhere in the table, found by hypergraph peeling
+    public static final int BLOOMIER = 0;
+
+    // BinaryFuseRetrieval: 3 slots in consecutive segments, about 1.13 slots per key from a million keys
+    public static final int BINARY_FUSE = 1;
+
+    // DictionaryBloomierFilter: as BLOOMIER, storing indexes into a dictionary of the values
+    public static final int BLOOMIER_DICTIONARY = 2;
+
+    private RetrievalEngines() {
+        // Only static members
+    }
+
+    public static String getName(int id) {
+        switch (id) {
+            case BLOOMIER:
+                return "Bloomier";
+            case BINARY_FUSE:
+                return "BinaryFuse";
+            case BLOOMIER_DICTIONARY:
+                return "BloomierDictionary";
+            default:
+                throw new IllegalArgumentException("Unknown retrieval engine id: " + id);
+        }
+    }
+}
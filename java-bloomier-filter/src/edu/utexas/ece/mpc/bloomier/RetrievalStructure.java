@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+package edu.utexas.ece.mpc.bloomier;
+
+/**
+ * A static function from a fixed key set to values, stored in a table of m slots of q bits each.
+ * Keys outside the set usually come back as null (how often they don't depends on the check bits
+ * left in q after the encoded value). Implementations are immutable and safe for concurrent
+ * readers.
+ */
+public interface RetrievalStructure<K, V> {
+    V get(K key);
+
+    // See ImmutableBloomierFilter.getAll()
+    int getAll(K[] keys, V[] values, long[] missing);
+
+    // One of the RetrievalEngines ids, identifying the construction (and so how to read the table)
+    int getEngineId();
+
+    int getM();
+
+    int getQ();
+
+    long getHashSeed();
+
+    // The packed table, ceil(m * q / 8) bytes
+    byte[] getFlatTable();
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamily;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+import edu.utexas.ece.mpc.bloomier.internal.BitPackedTable;
+import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.KryoValueCodec;
+import edu.utexas.ece.mpc.bloomier.internal.LookupScratch;
+import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatch;
+import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatchFinder;
+import edu.utexas.ece.mpc.bloomier.internal.ValueCodec;
+
+/**
+ * A filter split into independently built shards. Keys are assigned to a shard by a top level hash;
+ * each shard is an ordinary Bloomier filter over its keys with its own hash seed, and the shards'
+ * slots are laid out back to back in one packed table. Shards are built concurrently, and an
+ * unlucky seed only means retrying the one shard it was tried on.
+ */
+public class ShardedBloomierFilter<K, V> {
+    // Seed of the hash picking a key's shard; shard seeds are searched upwards from their hint
+    public static final long SHARD_SEED = 0x5348415244L;
+
+    // Shards start on byte boundaries (a multiple of 8 slots), so building them concurrently never
+    // touches the same byte of the table from two threads
+    private static final int SHARD_ALIGNMENT = Byte.SIZE;
+
+    private final ValueCodec<V> codec;
+
+    private final int k;
+    private final int q;
+    private final HashFamily hashFamily;
+    private final KeyFunnel<? super K> keyFunnel;
+
+    private final BloomierHasher<K> shardHasher;
+    private final BloomierHasher<K>[] hashers;
+    private final int[] offsets; // shard i holds slots [offsets[i], offsets[i + 1])
+
+    private final BitPackedTable table;
+
+    public ShardedBloomierFilter(Map<K, V> map, int m, int k, int q, int shards,
+                                 Class<V> valueClass, HashFamily hashFamily, int timeoutMs,
+                                 long hashSeedHint) throws TimeoutException {
+        this(map, m, k, q, shards, valueClass, hashFamily, KeyFunnels.DEFAULT, timeoutMs,
+             hashSeedHint);
+    }
+
+    public ShardedBloomierFilter(Map<K, V> map, int m, int k, int q, int shards,
+                                 Class<V> valueClass, HashFamily hashFamily,
+                                 KeyFunnel<? super K> keyFunnel, int timeoutMs, long hashSeedHint)
+            throws TimeoutException {
+        this(map, m, k, q, shards, KryoValueCodec.forClass(valueClass), hashFamily, keyFunnel,
+             timeoutMs, hashSeedHint, ForkJoinPool.commonPool());
+    }
+
+    // m is the total number of slots, divided between shards in proportion to their key counts
+    // (rounded up to whole bytes per shard); every shard's seed search starts at hashSeedHint
+    public ShardedBloomierFilter(Map<K, V> map, int m, int k, int q, int shards,
+                                 ValueCodec<V> codec, HashFamily hashFamily,
+                                 KeyFunnel<? super K> keyFunnel, int timeoutMs, long hashSeedHint,
+                                 ForkJoinPool pool) throws TimeoutException {
+        this(k, q, codec, hashFamily, keyFunnel,
+             new Layout<K, V>(map, m, shards, hashFamily, keyFunnel), timeoutMs, hashSeedHint,
+             pool);
+    }
+
+    private ShardedBloomierFilter(int k, int q, ValueCodec<V> codec, HashFamily hashFamily,
+                                  KeyFunnel<? super K> keyFunnel, Layout<K, V> layout,
+                                  int timeoutMs, long hashSeedHint, ForkJoinPool pool)
+            throws TimeoutException {
+        this(k, q, codec, hashFamily, keyFunnel, layout.offsets,
+             layout.search(pool, k, q, hashFamily, keyFunnel, timeoutMs, hashSeedHint), null);
+
+        // Shards start on byte boundaries, so filling them concurrently is safe
+        List<ShardFill> fills = new ArrayList<ShardFill>(hashers.length);
+        for (int i = 0; i < hashers.length; i++) {
+            fills.add(new ShardFill(i, layout.maps.get(i), layout.orders.get(i)));
+        }
+        pool.invoke(new ShardTasks(fills));
+    }
+
+    // Rebuilds a filter from its parts (e.g. as read back from getShardSeeds(), getShardOffsets()
+    // and getFlatTable()); the table is used as is (not copied)
+    public ShardedBloomierFilter(int k, int q, Class<V> valueClass, HashFamily hashFamily,
+                                 long[] shardSeeds, int[] shardOffsets, byte[] table) {
+        this(k, q, valueClass, hashFamily, KeyFunnels.DEFAULT, shardSeeds, shardOffsets, table);
+    }
+
+    public ShardedBloomierFilter(int k, int q, Class<V> valueClass, HashFamily hashFamily,
+                                 KeyFunnel<? super K> keyFunnel, long[] shardSeeds,
+                                 int[] shardOffsets, byte[] table) {
+        this(k, q, KryoValueCodec.forClass(valueClass), hashFamily, keyFunnel, shardOffsets,
+             shardSeeds, table);
+    }
+
+    // A null table is allocated (empty)
+    ShardedBloomierFilter(int k, int q, ValueCodec<V> codec, HashFamily hashFamily,
+                          KeyFunnel<? super K> keyFunnel, int[] offsets, long[] seeds,
+                          byte[] table) {
+        if (seeds.length < 1) {
+            throw new IllegalArgumentException("Need at least one shard");
+        }
+        if (offsets.length != seeds.length + 1) {
+            throw new IllegalArgumentException("Need one more shard offset than shard seeds ("
+                                               + offsets.length + " offsets for " + seeds.length
+                                               + " seeds)");
+        }
+
+        this.k = k;
+        this.q = q;
+        this.codec = codec;
+        this.hashFamily = hashFamily;
+        this.keyFunnel = keyFunnel;
+        this.offsets = offsets.clone();
+
+        shardHasher = new BloomierHasher<K>(hashFamily, keyFunnel, SHARD_SEED, seeds.length, 1, 0);
+        hashers = newHasherArray(seeds.length);
+        for (int i = 0; i < seeds.length; i++) {
+            hashers[i] = new BloomierHasher<K>(hashFamily, keyFunnel, seeds[i],
+                                               offsets[i + 1] - offsets[i], k, q);
+        }
+
+        int m = offsets[seeds.length];
+        this.table = table == null ? new BitPackedTable(m, q) : new BitPackedTable(m, q, table);
+    }
+
+    public V get(K key) {
+        int shard = getShard(key);
+        return ImmutableBloomierFilter.get(key, hashers[shard], table, offsets[shard], 0,
+                                           codec);
+    }
+
+    public int getShardCount() {
+        return hashers.length;
+    }
+
+    public int getM() {
+        return offsets[hashers.length];
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public int getQ() {
+        return q;
+    }
+
+    public HashFamily getHashFamily() {
+        return hashFamily;
+    }
+
+    public KeyFunnel<? super K> getKeyFunnel() {
+        return keyFunnel;
+    }
+
+    public long[] getShardSeeds() {
+        long[] seeds = new long[hashers.length];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = hashers[i].getHashSeed();
+        }
+        return seeds;
+    }
+
+    public int[] getShardOffsets() {
+        return offsets.clone();
+    }
+
+    // The live packed table (not a copy)
+    public byte[] getFlatTable() {
+        return table.getBytes();
+    }
+
+    private int getShard(K key) {
+        return getShard(key, shardHasher);
+    }
+
+    static <K> int getShard(K key, BloomierHasher<K> shardHasher) {
+        LookupScratch scratch = LookupScratch.get();
+        int[] shard = scratch.getNeighborhood(1);
+        shardHasher.hash(key, scratch.getKey(BloomierHasher.KEY_LENGTH), shard, null);
+        return shard[0];
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static <K> BloomierHasher<K>[] newHasherArray(int length) {
+        return new BloomierHasher[length];
+    }
+
+    static int alignedSlots(long slots) {
+        long aligned = (Math.max(1, slots) + SHARD_ALIGNMENT - 1) / SHARD_ALIGNMENT
+                       * SHARD_ALIGNMENT;
+        if (aligned > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Shard too large (" + aligned + " slots)");
+        }
+        return (int) aligned;
+    }
+
+    // The division of a key set into shards, and (once searched) each shard's ordering
+    private static class Layout<K, V> {
+        final List<Map<K, V>> maps;
+        final int[] offsets; // shard i holds slots [offsets[i], offsets[i + 1])
+        final List<OrderAndMatch<K>> orders = new ArrayList<OrderAndMatch<K>>();
+
+        Layout(Map<K, V> map, int m, int shards, HashFamily hashFamily,
+               KeyFunnel<? super K> keyFunnel) {
+            if (shards < 1) {
+                throw new IllegalArgumentException("Need at least one shard (shards=" + shards
+                                                   + ")");
+            }
+
+            BloomierHasher<K> shardHasher = new BloomierHasher<K>(hashFamily, keyFunnel, SHARD_SEED,
+                                                                  shards, 1, 0);
+            maps = new ArrayList<Map<K, V>>(shards);
+            for (int i = 0; i < shards; i++) {
+                maps.add(new HashMap<K, V>());
+            }
+            for (Map.Entry<K, V> entry: map.entrySet()) {
+                maps.get(getShard(entry.getKey(), shardHasher)).put(entry.getKey(),
+                                                                    entry.getValue());
+            }
+
+            offsets = new int[shards + 1];
+            for (int i = 0; i < shards; i++) {
+                double share = map.isEmpty() ? 1.0 / shards : (double) maps.get(i).size()
+                                                              / map.size();
+                offsets[i + 1] = offsets[i] + alignedSlots((long) Math.ceil(share * m));
+            }
+        }
+
+        // Finds every shard's ordering concurrently; returns the shards' seeds
+        long[] search(ForkJoinPool pool, int k, int q, HashFamily hashFamily,
+                      KeyFunnel<? super K> keyFunnel, int timeoutMs, long hashSeedHint)
+                throws TimeoutException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+
+            List<ShardSearch<K>> searches = new ArrayList<ShardSearch<K>>(maps.size());
+            for (int i = 0; i < maps.size(); i++) {
+                OrderAndMatchFinder<K> oamf;
+                oamf = new OrderAndMatchFinder<K>(maps.get(i).keySet(), offsets[i + 1]
+                                                                        - offsets[i], k, q,
+                                                  hashFamily, keyFunnel, hashSeedHint);
+                searches.add(new ShardSearch<K>(i, oamf, deadline));
+            }
+            pool.invoke(new ShardTasks(searches));
+
+            long[] seeds = new long[maps.size()];
+            for (ShardSearch<K> search: searches) {
+                if (search.timeout != null) {
+                    throw search.timeout;
+                }
+                orders.add(search.oam);
+                seeds[search.shard] = search.oam.getHashSeed();
+            }
+            return seeds;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class ShardSearch<K> extends RecursiveAction {
+        final int shard;
+        final OrderAndMatchFinder<K> oamf;
+        final long deadline;
+
+        OrderAndMatch<K> oam;
+        TimeoutException timeout;
+
+        ShardSearch(int shard, OrderAndMatchFinder<K> oamf, long deadline) {
+            this.shard = shard;
+            this.oamf = oamf;
+            this.deadline = deadline;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    throw new TimeoutException("Ran out of time before searching shard " + shard);
+                }
+                oam = oamf.find(remainingMs);
+            } catch (TimeoutException e) {
+                timeout = e;
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class ShardFill extends RecursiveAction {
+        private final int shard;
+        private final Map<K, V> map;
+        private final OrderAndMatch<K> oam;
+
+        ShardFill(int shard, Map<K, V> map, OrderAndMatch<K> oam) {
+            this.shard = shard;
+            this.map = map;
+            this.oam = oam;
+        }
+
+        @Override
+        protected void compute() {
+            ImmutableBloomierFilter.fill(table, offsets[shard], map, oam, hashers[shard], 0,
+                                         codec);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class ShardTasks extends RecursiveAction {
+        private final List<? extends RecursiveAction> tasks;
+
+        ShardTasks(List<? extends RecursiveAction> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected void compute() {
+            ForkJoinTask.invokeAll(tasks);
+        }
+    }
+}
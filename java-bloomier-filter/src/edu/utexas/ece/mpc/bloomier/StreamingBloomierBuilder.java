@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamily;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+import edu.utexas.ece.mpc.bloomier.internal.BitPackedTable;
+import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.KryoValueCodec;
+import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatch;
+import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatchFinder;
+import edu.utexas.ece.mpc.bloomier.internal.RawValueCodec;
+import edu.utexas.ece.mpc.bloomier.internal.ValueCodec;
+
+/**
+ * Builds filters over key sets too large to hold in memory. Entries are consumed once from an
+ * iterator and spilled to temporary files as (encoded key, encoded value) records; filters only
+ * ever hash the bytes the key funnel encodes a key to, so the keys themselves aren't needed past
+ * that point. The records are then bucket sorted on disk by shard and each shard is built from its
+ * bucket alone, so the heap only has to hold one bucket at a time (plus the table being filled).
+ */
+public class StreamingBloomierBuilder<K, V> {
+    // Rough heap cost of a short key while its shard is being built (encoded key, encoded value,
+    // map entries and peeling state)
+    private static final int BYTES_PER_KEY = 224;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int k;
+    private final int q;
+    private final double slotsPerKey;
+    private final ValueCodec<V> codec;
+    private final HashFamily hashFamily;
+    private final KeyFunnel<? super K> keyFunnel;
+    private final long heapBudget;
+    private final File tempDir;
+
+    public StreamingBloomierBuilder(int k, int q, double slotsPerKey, Class<V> valueClass,
+                                    HashFamily hashFamily, long heapBudget, File tempDir) {
+        this(k, q, slotsPerKey, valueClass, hashFamily, KeyFunnels.DEFAULT, heapBudget, tempDir);
+    }
+
+    public StreamingBloomierBuilder(int k, int q, double slotsPerKey, Class<V> valueClass,
+                                    HashFamily hashFamily, KeyFunnel<? super K> keyFunnel,
+                                    long heapBudget, File tempDir) {
+        this(k, q, slotsPerKey, KryoValueCodec.forClass(valueClass), hashFamily, keyFunnel,
+             heapBudget, tempDir);
+    }
+
+    // heapBudget (in bytes) bounds the size of the shards; tempDir may be null for the default
+    // temporary directory
+    public StreamingBloomierBuilder(int k, int q, double slotsPerKey, ValueCodec<V> codec,
+                                    HashFamily hashFamily, KeyFunnel<? super K> keyFunnel,
+                                    long heapBudget, File tempDir) {
+        if (heapBudget < BYTES_PER_KEY) {
+            throw new IllegalArgumentException("Heap budget too small (" + heapBudget + " bytes)");
+        }
+
+        this.k = k;
+        this.q = q;
+        this.slotsPerKey = slotsPerKey;
+        this.codec = codec;
+        this.hashFamily = hashFamily;
+        this.keyFunnel = keyFunnel;
+        this.heapBudget = heapBudget;
+        this.tempDir = tempDir;
+    }
+
+    // Keys must have distinct encodings (as for every other filter); a repeated encoding (e.g. a
+    // repeated hash code, with the default funnel) is reported with an IllegalArgumentException
+    public ShardedBloomierFilter<K, V> build(Iterator<? extends Map.Entry<K, V>> entries,
+                                             int timeoutMs, long hashSeedHint) throws IOException,
+            TimeoutException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        int entrySize = BitPackedTable.entryBytes(q);
+
+        // Pass 1: spill every entry as a fixed size record
+        File run = File.createTempFile("bloomier", ".run", tempDir);
+        long n = 0;
+        try {
+            DataOutputStream out = openOutput(run, BUFFER_SIZE);
+            try {
+                byte[] key = new byte[BloomierHasher.KEY_LENGTH];
+                byte[] value = new byte[entrySize];
+                while (entries.hasNext()) {
+                    Map.Entry<K, V> entry = entries.next();
+                    key = writeKey(out, entry.getKey(), key);
+                    writeValue(out, entry.getValue(), value);
+                    n++;
+                }
+            } finally {
+                out.close();
+            }
+
+            long keysPerShard = heapBudget / BYTES_PER_KEY;
+            long shards = Math.max(1, (n + keysPerShard - 1) / keysPerShard);
+            if (shards > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many keys for heap budget (" + n + " keys)");
+            }
+
+            return build(run, (int) shards, entrySize, deadline, hashSeedHint);
+        } finally {
+            run.delete();
+        }
+    }
+
+    private ShardedBloomierFilter<K, V> build(File run, int shards, int entrySize, long deadline,
+                                              long hashSeedHint) throws IOException,
+            TimeoutException {
+        // Pass 2: distribute the records into one bucket file per shard
+        List<File> buckets = new ArrayList<File>(shards);
+        try {
+            int[] counts = distribute(run, shards, entrySize, buckets);
+
+            int[] offsets = new int[shards + 1];
+            for (int i = 0; i < shards; i++) {
+                offsets[i + 1] = offsets[i]
+                                 + ShardedBloomierFilter.alignedSlots((long) Math.ceil(counts[i]
+                                                                                       * slotsPerKey));
+            }
+            BitPackedTable table = new BitPackedTable(offsets[shards], q);
+
+            // Pass 3: build each shard from its bucket, straight into its part of the table
+            long[] seeds = new long[shards];
+            for (int i = 0; i < shards; i++) {
+                Map<byte[], byte[]> bucket = readBucket(buckets.get(i), counts[i], entrySize);
+                buckets.get(i).delete();
+
+                int m = offsets[i + 1] - offsets[i];
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    throw new TimeoutException("Ran out of time before building shard " + i);
+                }
+
+                // The bytes funnel hashes a key's recorded encoding exactly as keyFunnel hashes the
+                // key itself
+                OrderAndMatchFinder<byte[]> oamf;
+                oamf = new OrderAndMatchFinder<byte[]>(bucket.keySet(), m, k, q, hashFamily,
+                                                       KeyFunnels.BYTES, hashSeedHint);
+                OrderAndMatch<byte[]> oam = oamf.find(remainingMs);
+                ImmutableBloomierFilter.fill(table, offsets[i], bucket, oam, oamf.getHasher(), 0,
+                                             RawValueCodec.INSTANCE);
+                seeds[i] = oam.getHashSeed();
+            }
+
+            return new ShardedBloomierFilter<K, V>(k, q, codec, hashFamily, keyFunnel, offsets,
+                                                   seeds, table.getBytes());
+        } finally {
+            for (File bucket: buckets) {
+                bucket.delete();
+            }
+        }
+    }
+
+    private int[] distribute(File run, int shards, int entrySize, List<File> buckets)
+            throws IOException {
+        BloomierHasher<byte[]> shardHasher;
+        shardHasher = new BloomierHasher<byte[]>(hashFamily, KeyFunnels.BYTES,
+                                                 ShardedBloomierFilter.SHARD_SEED, shards, 1, 0);
+
+        // Every bucket is open at once; keep their buffers within the budget
+        int bufferSize = (int) Math.max(512, Math.min(BUFFER_SIZE, heapBudget / (2L * shards)));
+
+        int[] counts = new int[shards];
+        List<DataOutputStream> outs = new ArrayList<DataOutputStream>(shards);
+        DataInputStream in = openInput(run);
+        try {
+            for (int i = 0; i < shards; i++) {
+                File bucket = File.createTempFile("bloomier", ".bucket", tempDir);
+                buckets.add(bucket);
+                outs.add(openOutput(bucket, bufferSize));
+            }
+
+            byte[] value = new byte[entrySize];
+            while (true) {
+                byte[] key;
+                try {
+                    key = new byte[in.readInt()];
+                } catch (EOFException e) {
+                    break;
+                }
+                in.readFully(key);
+                in.readFully(value);
+
+                int shard = ShardedBloomierFilter.getShard(key, shardHasher);
+                outs.get(shard).writeInt(key.length);
+                outs.get(shard).write(key);
+                outs.get(shard).write(value);
+                counts[shard]++;
+            }
+        } finally {
+            in.close();
+            for (DataOutputStream out: outs) {
+                out.close();
+            }
+        }
+        return counts;
+    }
+
+    // Arrays hash by identity, so the records are keyed by the encodings themselves and repeats are
+    // caught separately
+    private Map<byte[], byte[]> readBucket(File bucket, int count, int entrySize)
+            throws IOException {
+        Map<byte[], byte[]> records = new HashMap<byte[], byte[]>(count * 4 / 3 + 1);
+        Set<ByteBuffer> encodings = new HashSet<ByteBuffer>(count * 4 / 3 + 1);
+        DataInputStream in = openInput(bucket);
+        try {
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+                byte[] value = new byte[entrySize];
+                in.readFully(value);
+                if (!encodings.add(ByteBuffer.wrap(key))) {
+                    throw new IllegalArgumentException("Keys with the same " + keyFunnel.getName()
+                                                       + " encoding can't be told apart");
+                }
+                records.put(key, value);
+            }
+        } finally {
+            in.close();
+        }
+        return records;
+    }
+
+    // Writes key's encoding, length first; returns the (possibly grown) buffer to use next time
+    private byte[] writeKey(DataOutputStream out, K key, byte[] buffer) throws IOException {
+        if (buffer.length < keyFunnel.getMaxLength(key)) {
+            buffer = new byte[Math.max(keyFunnel.getMaxLength(key), 2 * buffer.length)];
+        }
+        int length = keyFunnel.encode(key, buffer);
+        out.writeInt(length);
+        out.write(buffer, 0, length);
+        return buffer;
+    }
+
+    private void writeValue(DataOutputStream out, V value, byte[] buffer) throws IOException {
+        for (int i = 0; i < buffer.length; i++) {
+            buffer[i] = 0;
+        }
+        codec.encode(value, buffer, q);
+        out.write(buffer);
+    }
+
+    private static DataOutputStream openOutput(File file, int bufferSize) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                                                             bufferSize));
+    }
+
+    private static DataInputStream openInput(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+    }
+}
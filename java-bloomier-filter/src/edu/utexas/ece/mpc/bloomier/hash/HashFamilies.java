@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier.hash;
+
+public class HashFamilies {
+    public static final HashFamily MD5 = new Md5HashFamily();
+    public static final HashFamily MURMUR3 = new Murmur3HashFamily();
+
+    // MD5 remains the default so filters built without naming a family stay compatible with what is
+    // already deployed
+    public static final HashFamily DEFAULT = MD5;
+
+    private static final HashFamily[] families = { MD5, MURMUR3 };
+
+    private HashFamilies() {
+        // Only static members
+    }
+
+    public static HashFamily forId(int id) {
+        for (HashFamily family: families) {
+            if (family.getId() == id) {
+                return family;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown hash family id: " + id);
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier.hash;
+
+/**
+ * A seeded family of hash functions from which a bloomier filter derives each key's neighborhood
+ * (k indices in [0,m)) and its mask M(x). Implementations must be stateless (or thread confined
+ * internally) so a single instance can be shared by every filter using it. The id is what gets
+ * recorded alongside a filter so a receiver can pick the same family.
+ */
+public interface HashFamily {
+    int getId();
+
+    String getName();
+
+    /**
+     * Hashes data[0..length) under the given seed, writing neighborhood.length indices in [0,m) into
+     * neighborhood and mask.length mask bytes into mask (mask may be null if it isn't needed).
+     */
+    void hash(long seed, byte[] data, int length, int m, int[] neighborhood, byte[] mask);
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier.hash;
+
+/**
+ * Turns a key into the bytes a HashFamily hashes. Two keys hash alike exactly when their encodings
+ * are equal, so an encoding should be injective over the keys stored together (keys sharing an
+ * encoding share a neighborhood, and no seed can then separate them). Encoding writes into a buffer
+ * the caller owns and keeps between keys, so it needn't allocate. Like hash families, funnels must
+ * be stateless, and the id is recorded alongside a filter so a receiver can pick the same one.
+ */
+public interface KeyFunnel<K> {
+    int getId();
+
+    String getName();
+
+    // An upper bound on the bytes encode() writes for key
+    int getMaxLength(K key);
+
+    // Writes key's bytes to the front of buffer (at least getMaxLength(key) long); returns how many
+    int encode(K key, byte[] buffer);
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier.hash;
+
+/**
+ * The built in key funnels. HASH_CODE is what every filter used before funnels were pluggable: only
+ * the key's 32 bit hashCode() is hashed, so keys with colliding hash codes can never be separated
+ * and construction retries until it times out. The others encode the whole key.
+ */
+public class KeyFunnels {
+    public static final KeyFunnel<Object> HASH_CODE = new HashCodeFunnel();
+    public static final KeyFunnel<CharSequence> STRING = new StringFunnel();
+    public static final KeyFunnel<byte[]> BYTES = new BytesFunnel();
+    public static final KeyFunnel<Integer> INTEGER = new IntegerFunnel();
+    public static final KeyFunnel<Long> LONG = new LongFunnel();
+
+    // HASH_CODE remains the default so filters built without naming a funnel stay compatible with
+    // what is already deployed. An Integer's hash code is its value, so INTEGER hashes Integer keys
+    // exactly as HASH_CODE does.
+    public static final KeyFunnel<Object> DEFAULT = HASH_CODE;
+
+    private static final KeyFunnel<?>[] funnels = { HASH_CODE, STRING, BYTES, INTEGER, LONG };
+
+    private KeyFunnels() {
+        // Only static members
+    }
+
+    public static KeyFunnel<?> forId(int id) {
+        for (KeyFunnel<?> funnel: funnels) {
+            if (funnel.getId() == id) {
+                return funnel;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown key funnel id: " + id);
+    }
+
+    // Whether forId(keyFunnel.getId()) gives keyFunnel back
+    public static boolean isBuiltIn(KeyFunnel<?> keyFunnel) {
+        for (KeyFunnel<?> funnel: funnels) {
+            if (funnel == keyFunnel) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static int putInt(int value, byte[] buffer, int offset) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+        return offset + Integer.SIZE / Byte.SIZE;
+    }
+
+    private static class HashCodeFunnel implements KeyFunnel<Object> {
+
+        @Override
+        public int getId() {
+            return 0;
+        }
+
+        @Override
+        public String getName() {
+            return "hashCode";
+        }
+
+        @Override
+        public int getMaxLength(Object key) {
+            return Integer.SIZE / Byte.SIZE;
+        }
+
+        @Override
+        public int encode(Object key, byte[] buffer) {
+            return putInt(key.hashCode(), buffer, 0);
+        }
+    }
+
+    // The UTF-16 code units, two bytes each (cheaper than UTF-8 and just as injective)
+    private static class StringFunnel implements KeyFunnel<CharSequence> {
+
+        @Override
+        public int getId() {
+            return 1;
+        }
+
+        @Override
+        public String getName() {
+            return "string";
+        }
+
+        @Override
+        public int getMaxLength(CharSequence key) {
+            return key.length() * (Character.SIZE / Byte.SIZE);
+        }
+
+        @Override
+        public int encode(CharSequence key, byte[] buffer) {
+            int length = key.length();
+            for (int i = 0; i < length; i++) {
+                char c = key.charAt(i);
+                buffer[2 * i] = (byte) (c >>> 8);
+                buffer[2 * i + 1] = (byte) c;
+            }
+            return length * (Character.SIZE / Byte.SIZE);
+        }
+    }
+
+    private static class BytesFunnel implements KeyFunnel<byte[]> {
+
+        @Override
+        public int getId() {
+            return 2;
+        }
+
+        @Override
+        public String getName() {
+            return "bytes";
+        }
+
+        @Override
+        public int getMaxLength(byte[] key) {
+            return key.length;
+        }
+
+        @Override
+        public int encode(byte[] key, byte[] buffer) {
+            System.arraycopy(key, 0, buffer, 0, key.length);
+            return key.length;
+        }
+    }
+
+    private static class IntegerFunnel implements KeyFunnel<Integer> {
+
+        @Override
+        public int getId() {
+            return 3;
+        }
+
+        @Override
+        public String getName() {
+            return "int";
+        }
+
+        @Override
+        public int getMaxLength(Integer key) {
+            return Integer.SIZE / Byte.SIZE;
+        }
+
+        @Override
+        public int encode(Integer key, byte[] buffer) {
+            return putInt(key, buffer, 0);
+        }
+    }
+
+    private static class LongFunnel implements KeyFunnel<Long> {
+
+        @Override
+        public int getId() {
+            return 4;
+        }
+
+        @Override
+        public String getName() {
+            return "long";
+        }
+
+        @Override
+        public int getMaxLength(Long key) {
+            return Long.SIZE / Byte.SIZE;
+        }
+
+        @Override
+        public int encode(Long key, byte[] buffer) {
+            long value = key;
+            putInt((int) (value >>> 32), buffer, 0);
+            return putInt((int) value, buffer, Integer.SIZE / Byte.SIZE);
+        }
+    }
+}
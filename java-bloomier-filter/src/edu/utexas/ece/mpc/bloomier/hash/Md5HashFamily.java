@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+package edu.utexas.ece.mpc.bloomier.hash;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The original hash family: an MD5 stream over (seed, data), (seed + 1, data), ... from which both
+ * the neighborhood and the mask are read. Kept bit-for-bit compatible with the filters built before
+ * hash families were pluggable.
+ */
+public class Md5HashFamily implements HashFamily {
+    public static final int ID = 0;
+
+    private static final int DIGEST_LENGTH = 16;
+
+    private final ThreadLocal<State> states = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
+
+    Md5HashFamily() {
+        // Use HashFamilies.MD5
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "MD5";
+    }
+
+    @Override
+    public void hash(long seed, byte[] data, int length, int m, int[] neighborhood, byte[] mask) {
+        int maskLength = mask == null ? 0 : mask.length;
+        int streamLength = Math.max(neighborhood.length * (Integer.SIZE / Byte.SIZE), maskLength);
+
+        State state = states.get();
+        byte[] stream = state.fill(seed, data, length, streamLength);
+
+        for (int i = 0; i < neighborhood.length; i++) {
+            int offset = i * (Integer.SIZE / Byte.SIZE);
+            int hash = ((stream[offset] & 0xff) << 24) | ((stream[offset + 1] & 0xff) << 16)
+                       | ((stream[offset + 2] & 0xff) << 8) | (stream[offset + 3] & 0xff);
+            neighborhood[i] = Math.abs(hash % m); // Massage value to be in [0,m)
+        }
+
+        for (int i = 0; i < maskLength; i++) {
+            mask[i] = stream[i];
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    private static class State {
+        private final MessageDigest md;
+        private final byte[] salt = new byte[Long.SIZE / Byte.SIZE];
+        private byte[] stream = new byte[4 * DIGEST_LENGTH];
+
+        State() {
+            try {
+                md = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("Missing required hashing algorithm", e);
+            }
+        }
+
+        byte[] fill(long seed, byte[] data, int length, int streamLength) {
+            if (stream.length < streamLength) {
+                stream = new byte[(streamLength / DIGEST_LENGTH + 1) * DIGEST_LENGTH];
+            }
+
+            long saltValue = seed;
+            for (int filled = 0; filled < streamLength; filled += DIGEST_LENGTH) {
+                for (int i = 0; i < salt.length; i++) {
+                    salt[i] = (byte) (saltValue >>> (Long.SIZE - Byte.SIZE * (i + 1)));
+                }
+
+                md.update(salt);
+                md.update(data, 0, length);
+                try {
+                    md.digest(stream, filled, DIGEST_LENGTH);
+                } catch (DigestException e) {
+                    throw new IllegalStateException("Hash generation failed", e);
+                }
+
+                // The original stream implementation shifted every byte by Byte.MIN_VALUE on its way
+                // out; keep doing so to stay compatible with existing filters
+                for (int i = filled; i < filled + DIGEST_LENGTH; i++) {
+                    stream[i] ^= 0x80;
+                }
+
+                saltValue++;
+            }
+
+            return stream;
+        }
+    }
+}
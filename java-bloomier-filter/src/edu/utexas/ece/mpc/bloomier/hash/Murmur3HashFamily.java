@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+package edu.utexas.ece.mpc.bloomier.hash;
+
+/**
+ * A fast, non-cryptographic family based on MurmurHash3 (x64, 128-bit variant, with the 64-bit seed
+ * initializing both lanes). The 32-bit quarters of the result pick the neighborhood slots, and
+ * the mask is expanded from them with a SplitMix64 sequence, so a key is only hashed once per
+ * lookup.
+ */
+public class Murmur3HashFamily implements HashFamily {
+    public static final int ID = 1;
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    Murmur3HashFamily() {
+        // Use HashFamilies.MURMUR3
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "Murmur3";
+    }
+
+    @Override
+    @SuppressWarnings("fallthrough")
+    public void hash(long seed, byte[] data, int length, int m, int[] neighborhood, byte[] mask) {
+        long h1 = seed;
+        long h2 = seed;
+
+        int blocks = length / 16;
+        for (int i = 0; i < blocks; i++) {
+            long k1 = getLong(data, i * 16);
+            long k2 = getLong(data, i * 16 + 8);
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        int tail = blocks * 16;
+        switch (length & 15) {
+            case 15:
+                k2 ^= (long) (data[tail + 14] & 0xff) << 48;
+                // fall through
+            case 14:
+                k2 ^= (long) (data[tail + 13] & 0xff) << 40;
+                // fall through
+            case 13:
+                k2 ^= (long) (data[tail + 12] & 0xff) << 32;
+                // fall through
+            case 12:
+                k2 ^= (long) (data[tail + 11] & 0xff) << 24;
+                // fall through
+            case 11:
+                k2 ^= (long) (data[tail + 10] & 0xff) << 16;
+                // fall through
+            case 10:
+                k2 ^= (long) (data[tail + 9] & 0xff) << 8;
+                // fall through
+            case 9:
+                k2 ^= data[tail + 8] & 0xff;
+                h2 ^= mixK2(k2);
+                // fall through
+            case 8:
+                k1 ^= (long) (data[tail + 7] & 0xff) << 56;
+                // fall through
+            case 7:
+                k1 ^= (long) (data[tail + 6] & 0xff) << 48;
+                // fall through
+            case 6:
+                k1 ^= (long) (data[tail + 5] & 0xff) << 40;
+                // fall through
+            case 5:
+                k1 ^= (long) (data[tail + 4] & 0xff) << 32;
+                // fall through
+            case 4:
+                k1 ^= (long) (data[tail + 3] & 0xff) << 24;
+                // fall through
+            case 3:
+                k1 ^= (long) (data[tail + 2] & 0xff) << 16;
+                // fall through
+            case 2:
+                k1 ^= (long) (data[tail + 1] & 0xff) << 8;
+                // fall through
+            case 1:
+                k1 ^= data[tail] & 0xff;
+                h1 ^= mixK1(k1);
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+
+        h1 += h2;
+        h2 += h1;
+
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+
+        h1 += h2;
+        h2 += h1;
+
+        // Each slot gets its own 32 bits (the halves of h1 and h2, then further SplitMix64 words),
+        // reduced to [0,m) by multiply-shift. Double hashing would only give m^2 distinct
+        // neighborhoods, so some pair of keys shares all k slots with probability ~n^2 / 2m^2 and
+        // peeling fails that often however big the table is.
+        long word = h1;
+        for (int i = 0; i < neighborhood.length; i++) {
+            if (i == 2) {
+                word = h2;
+            } else if (i > 2 && i % 2 == 0) {
+                word = fmix64(h2 + i * GOLDEN_GAMMA);
+            }
+            long bits = (i % 2 == 0 ? word >>> 32 : word & 0xffffffffL);
+            neighborhood[i] = (int) ((bits * m) >>> 32);
+        }
+
+        if (mask != null) {
+            long state = h1 ^ Long.rotateLeft(h2, 32);
+            for (int i = 0; i < mask.length; i += Long.SIZE / Byte.SIZE) {
+                state += GOLDEN_GAMMA;
+                long bits = fmix64(state);
+                int end = Math.min(mask.length, i + Long.SIZE / Byte.SIZE);
+                for (int j = i; j < end; j++) {
+                    mask[j] = (byte) bits;
+                    bits >>>= Byte.SIZE;
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    private static long getLong(byte[] data, int offset) {
+        return (data[offset] & 0xffL) | (data[offset + 1] & 0xffL) << 8
+               | (data[offset + 2] & 0xffL) << 16 | (data[offset + 3] & 0xffL) << 24
+               | (data[offset + 4] & 0xffL) << 32 | (data[offset + 5] & 0xffL) << 40
+               | (data[offset + 6] & 0xffL) << 48 | (data[offset + 7] & 0xffL) << 56;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        return k2;
+    }
+
+    // MurmurHash3's 64 bit finalizer; a bijection, so distinct inputs always hash differently
+    public static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+package edu.utexas.ece.mpc.bloomier.internal;
+
+/**
+ * m entries of exactly width bits each, packed back to back into a byte array. Bits are numbered
+ * most significant first, both within the table and within an entry, so an entry read out into a
+ * byte array holds its width bits at the front of the array followed by zero padding. The backing
+ * array is the packed bit string as it would go on the wire.
+ */
+public class BitPackedTable implements PackedTable {
+    private final int m;
+    private final int width;
+    private final int entryBytes;
+    private final byte[] bits;
+
+    public BitPackedTable(int m, int width) {
+        this(m, width, new byte[byteLength(m, width)]);
+    }
+
+    public BitPackedTable(int m, int width, byte[] bits) {
+        if (bits.length != byteLength(m, width)) {
+            throw new IllegalArgumentException("Packed table size (" + bits.length
+                                               + ") does not match m=" + m + " entries of "
+                                               + width + " bits (" + byteLength(m, width) + ")");
+        }
+
+        this.m = m;
+        this.width = width;
+        this.entryBytes = entryBytes(width);
+        this.bits = bits;
+    }
+
+    public static int byteLength(int m, int width) {
+        long length = ((long) m * width + Byte.SIZE - 1) / Byte.SIZE;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Table too large to pack (m=" + m + "; width="
+                                               + width + ")");
+        }
+        return (int) length;
+    }
+
+    public static int entryBytes(int width) {
+        return (width + Byte.SIZE - 1) / Byte.SIZE;
+    }
+
+    // Mask for the bits of an entry's last byte that actually belong to the entry
+    public static int lastByteMask(int width) {
+        int usedBits = width % Byte.SIZE;
+        return usedBits == 0 ? 0xff : (0xff << (Byte.SIZE - usedBits)) & 0xff;
+    }
+
+    @Override
+    public int getM() {
+        return m;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getEntryBytes() {
+        return entryBytes;
+    }
+
+    @Override
+    public long getByteLength() {
+        return bits.length;
+    }
+
+    public byte[] getBytes() {
+        return bits;
+    }
+
+    // The packed bytes of any table: the live array of a BitPackedTable, otherwise a copy
+    public static byte[] getBytes(PackedTable table) {
+        if (table instanceof BitPackedTable) {
+            return ((BitPackedTable) table).getBytes();
+        }
+
+        long length = table.getByteLength();
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Table too large to copy into an array (" + length
+                                            + " bytes)");
+        }
+        byte[] bytes = new byte[(int) length];
+        table.copyBytes(0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    @Override
+    public void copyBytes(long offset, byte[] destination, int destinationOffset, int length) {
+        System.arraycopy(bits, (int) offset, destination, destinationOffset, length);
+    }
+
+    @Override
+    public long getBits(long bitOffset, int count) {
+        return getBits(bits, bitOffset, count);
+    }
+
+    // Reads count (at most 64) bits of a most-significant-first bit string, right aligned
+    public static long getBits(byte[] bytes, long bitOffset, int count) {
+        if (count == 0) {
+            return 0;
+        }
+        if (count > Long.SIZE - Byte.SIZE) {
+            // The bits could span 9 bytes, so read them in two halves
+            return (getBits(bytes, bitOffset, count - Integer.SIZE) << Integer.SIZE)
+                   | getBits(bytes, bitOffset + count - Integer.SIZE, Integer.SIZE);
+        }
+
+        int index = (int) (bitOffset >>> 3);
+        int skip = (int) (bitOffset & 7); // leading bits of the first byte that aren't wanted
+        int available = Byte.SIZE - skip;
+
+        long result = bytes[index] & (0xff >>> skip);
+        while (available < count) {
+            index++;
+            int next = index < bytes.length ? bytes[index] & 0xff : 0;
+            result = (result << Byte.SIZE) | next;
+            available += Byte.SIZE;
+        }
+
+        // Up to 7 extra bits past the ones wanted may have been read
+        return (result >>> (available - count)) & (count == Long.SIZE ? -1L : (1L << count) - 1);
+    }
+
+    @Override
+    public void xorEntryInto(int slot, byte[] entry) {
+        long bitStart = (long) slot * width;
+        int byteStart = (int) (bitStart >>> 3);
+        int shift = (int) (bitStart & 7);
+
+        for (int i = 0; i < entryBytes; i++) {
+            int value = (bits[byteStart + i] << shift) & 0xff;
+            if (shift != 0 && byteStart + i + 1 < bits.length) {
+                value |= (bits[byteStart + i + 1] & 0xff) >>> (Byte.SIZE - shift);
+            }
+            if (i == entryBytes - 1) {
+                value &= lastByteMask(width);
+            }
+            entry[i] ^= value;
+        }
+    }
+
+    public void getEntry(int slot, byte[] entry) {
+        for (int i = 0; i < entryBytes; i++) {
+            entry[i] = 0;
+        }
+        xorEntryInto(slot, entry);
+    }
+
+    public void setEntry(int slot, byte[] entry) {
+        long bitPosition = (long) slot * width;
+        int remaining = width;
+        for (int i = 0; remaining > 0; i++) {
+            int count = Math.min(Byte.SIZE, remaining);
+            writeBits(bitPosition, entry[i] & 0xff, count);
+            bitPosition += count;
+            remaining -= count;
+        }
+    }
+
+    // Writes the top count bits of the given byte value at bitPosition
+    private void writeBits(long bitPosition, int value, int count) {
+        int index = (int) (bitPosition >>> 3);
+        int shift = (int) (bitPosition & 7);
+        int valueMask = (0xff << (Byte.SIZE - count)) & 0xff;
+        value &= valueMask;
+
+        bits[index] = (byte) ((bits[index] & ~(valueMask >>> shift)) | (value >>> shift));
+        if (shift + count > Byte.SIZE) {
+            int spill = Byte.SIZE - shift;
+            bits[index + 1] = (byte) ((bits[index + 1] & ~((valueMask << spill) & 0xff))
+                                      | ((value << spill) & 0xff));
+        }
+    }
+}
@@ -8,27 +8,40 @@
  * See included LICENSE.txt for licensing details
  * 
  */
-
 package edu.utexas.ece.mpc.bloomier.internal;
 
-import java.io.DataInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.ArrayDeque;
-import java.util.Queue;
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.hash.HashFamily;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
 
 public class BloomierHasher<K> {
+    // Bytes hashed per key by the default funnel; key buffers start out this long
+    public static final int KEY_LENGTH = Integer.SIZE / Byte.SIZE;
+
+    private static final int[] NO_NEIGHBORHOOD = new int[0];
+
     // TODO: memoize/cache hashes
-    private long hashSeed;
+    private final HashFamily hashFamily;
+    private final KeyFunnel<? super K> keyFunnel;
+    private final long hashSeed;
 
-    private int m;
-    private int k;
-    private int q;
+    private final int m;
+    private final int k;
+    private final int q;
 
     public BloomierHasher(long hashSeed, int m, int k, int q) {
+        this(HashFamilies.DEFAULT, hashSeed, m, k, q);
+    }
+
+    public BloomierHasher(HashFamily hashFamily, long hashSeed, int m, int k, int q) {
+        this(hashFamily, KeyFunnels.DEFAULT, hashSeed, m, k, q);
+    }
+
+    public BloomierHasher(HashFamily hashFamily, KeyFunnel<? super K> keyFunnel, long hashSeed,
+                          int m, int k, int q) {
+        this.hashFamily = hashFamily;
+        this.keyFunnel = keyFunnel;
         this.hashSeed = hashSeed;
         this.m = m;
         this.k = k;
@@ -36,76 +49,82 @@ public class BloomierHasher<K> {
     }
 
     public int[] getNeighborhood(K key) {
-        DataInputStream stream = new DataInputStream(new HashInputStream(key));
-
         int[] hashes = new int[k];
-        for (int i = 0; i < hashes.length; i++) {
-            try {
-                hashes[i] = Math.abs(stream.readInt()) % m; // Massage value to be in [0,m)
-            } catch (IOException e) {
-                // Shouldn't be possible
-                throw new IllegalStateException("Hash generation failed", e);
-            }
-        }
-
+        getNeighborhood(key, hashes);
         return hashes;
     }
 
-    public byte[] getM(K key) {
-        DataInputStream stream = new DataInputStream(new HashInputStream(key));
-
-        byte[] hashes = new byte[q / Byte.SIZE + 1];
-        for (int i = 0; i < hashes.length; i++) {
-            try {
-                hashes[i] = stream.readByte();
-            } catch (IOException e) {
-                // Shouldn't be possible
-                throw new IllegalStateException("Hash generation failed", e);
-            }
-        }
+    public void getNeighborhood(K key, int[] neighborhood) {
+        hash(key, neighborhood, null);
+    }
 
+    public byte[] getM(K key) {
+        byte[] hashes = new byte[getMaskLength()];
+        getM(key, hashes);
         return hashes;
     }
 
-    private class HashInputStream extends InputStream {
-        private byte[] data;
-        private long salt;
-        private MessageDigest md;
-
-        private Queue<Byte> buffer;
+    public void getM(K key, byte[] mask) {
+        hash(key, NO_NEIGHBORHOOD, mask);
+    }
 
-        public HashInputStream(K key) {
-            this.data = ByteBuffer.allocate(Integer.SIZE / Byte.SIZE).putInt(key.hashCode())
-                                  .array(); // TODO: use .toString instead of hashCode to get a better hash range
-            this.salt = hashSeed;
+    // Computes both the neighborhood and the mask with a single pass over the key
+    public void hash(K key, int[] neighborhood, byte[] mask) {
+        hash(key, new byte[keyFunnel.getMaxLength(key)], neighborhood, mask);
+    }
 
-            try {
-                md = MessageDigest.getInstance("MD5");
-            } catch (NoSuchAlgorithmException e) {
-                throw new RuntimeException("Missing required hashing algorithm", e);
-            }
+    // As above, but encodes the key into keyBuffer rather than a new array (unless it's too short;
+    // see getKeyBuffer)
+    public void hash(K key, byte[] keyBuffer, int[] neighborhood, byte[] mask) {
+        keyBuffer = getKeyBuffer(key, keyBuffer);
+        int length = keyFunnel.encode(key, keyBuffer);
+        hashFamily.hash(hashSeed, keyBuffer, length, m, neighborhood, mask);
+    }
 
-            buffer = new ArrayDeque<Byte>(md.getDigestLength());
-            topOff();
+    // buffer if key's encoding fits in it, otherwise a new buffer that does; callers hashing many
+    // keys keep the result so the buffer settles at the longest encoding
+    public byte[] getKeyBuffer(K key, byte[] buffer) {
+        int length = keyFunnel.getMaxLength(key);
+        if (length <= buffer.length) {
+            return buffer;
         }
+        return new byte[Math.max(length, 2 * buffer.length)];
+    }
 
-        @Override
-        public int read() {
-            if (buffer.isEmpty()) {
-                topOff();
-            }
-            return buffer.remove() - Byte.MIN_VALUE;
-        }
+    // Hashes key with the calling thread's scratch buffers, which hold the results (until the
+    // thread's next lookup)
+    public void hash(K key, LookupScratch scratch) {
+        hash(key, scratch.getKey(keyFunnel.getMaxLength(key)), scratch.getNeighborhood(k),
+             scratch.getMask(getMaskLength()));
+    }
 
-        private void topOff() {
-            md.update(ByteBuffer.allocate(Long.SIZE / Byte.SIZE).putLong(salt).array());
-            md.update(data);
+    public int getMaskLength() {
+        return q / Byte.SIZE + 1;
+    }
 
-            for (byte b: md.digest()) {
-                buffer.add(b);
-            }
+    public int getK() {
+        return k;
+    }
+
+    public HashFamily getHashFamily() {
+        return hashFamily;
+    }
+
+    public KeyFunnel<? super K> getKeyFunnel() {
+        return keyFunnel;
+    }
+
+    public long getHashSeed() {
+        return hashSeed;
+    }
 
-            salt++;
+    // Neighborhood slots may collide; XORs and degree counts must only consider each slot once
+    public static boolean isDuplicate(int[] neighborhood, int index) {
+        for (int i = 0; i < index; i++) {
+            if (neighborhood[i] == neighborhood[index]) {
+                return true;
+            }
         }
+        return false;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A read-only packed table whose bits live in one or more ByteBuffers (e.g. memory mapped regions
+ * of a file), so the table needn't be on the heap nor limited to 2GB. Every chunk but the last
+ * must hold exactly CHUNK_SIZE bytes. Only absolute reads are used, so the buffers' positions are
+ * never touched and concurrent readers are safe.
+ */
+public class ByteBufferPackedTable implements PackedTable {
+    public static final int CHUNK_SHIFT = 30;
+    public static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+    private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int m;
+    private final int width;
+    private final int entryBytes;
+    private final int lastByteMask;
+    private final long byteLength;
+
+    private final ByteBuffer[] chunks;
+
+    public ByteBufferPackedTable(int m, int width, ByteBuffer... chunks) {
+        long expected = ((long) m * width + Byte.SIZE - 1) / Byte.SIZE;
+        long available = 0;
+        for (int i = 0; i < chunks.length; i++) {
+            if (i < chunks.length - 1 && chunks[i].capacity() != CHUNK_SIZE) {
+                throw new IllegalArgumentException("Only the last chunk may be smaller than "
+                                                   + CHUNK_SIZE + " bytes");
+            }
+            available += chunks[i].capacity();
+        }
+        if (available < expected) {
+            throw new IllegalArgumentException("Buffers hold " + available + " bytes but m=" + m
+                                               + " entries of " + width + " bits need "
+                                               + expected);
+        }
+
+        this.m = m;
+        this.width = width;
+        this.entryBytes = BitPackedTable.entryBytes(width);
+        this.lastByteMask = BitPackedTable.lastByteMask(width);
+        this.byteLength = expected;
+        this.chunks = chunks;
+    }
+
+    @Override
+    public int getM() {
+        return m;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getEntryBytes() {
+        return entryBytes;
+    }
+
+    @Override
+    public long getByteLength() {
+        return byteLength;
+    }
+
+    @Override
+    public void xorEntryInto(int slot, byte[] entry) {
+        long bitStart = (long) slot * width;
+        long byteStart = bitStart >>> 3;
+        int shift = (int) (bitStart & 7);
+
+        int next = getByte(byteStart);
+        for (int i = 0; i < entryBytes; i++) {
+            int current = next;
+            long nextIndex = byteStart + i + 1;
+            next = nextIndex < byteLength ? getByte(nextIndex) : 0;
+
+            int value = ((current << shift) | (next >>> (Byte.SIZE - shift))) & 0xff;
+            if (i == entryBytes - 1) {
+                value &= lastByteMask;
+            }
+            entry[i] ^= value;
+        }
+    }
+
+    @Override
+    public long getBits(long bitOffset, int count) {
+        if (count == 0) {
+            return 0;
+        }
+        if (count > Long.SIZE - Byte.SIZE) {
+            // The bits could span 9 bytes, so read them in two halves
+            return (getBits(bitOffset, count - Integer.SIZE) << Integer.SIZE)
+                   | getBits(bitOffset + count - Integer.SIZE, Integer.SIZE);
+        }
+
+        long index = bitOffset >>> 3;
+        int skip = (int) (bitOffset & 7);
+        int available = Byte.SIZE - skip;
+
+        long result = getByte(index) & (0xff >>> skip);
+        while (available < count) {
+            index++;
+            int next = index < byteLength ? getByte(index) : 0;
+            result = (result << Byte.SIZE) | next;
+            available += Byte.SIZE;
+        }
+
+        return (result >>> (available - count)) & (count == Long.SIZE ? -1L : (1L << count) - 1);
+    }
+
+    // Bulk copies chunk by chunk (through duplicates, so the buffers' positions stay untouched)
+    @Override
+    public void copyBytes(long offset, byte[] destination, int destinationOffset, int length) {
+        while (length > 0) {
+            ByteBuffer chunk = chunks[(int) (offset >>> CHUNK_SHIFT)].duplicate();
+            int start = (int) (offset & CHUNK_MASK);
+            int count = Math.min(length, chunk.capacity() - start);
+
+            chunk.clear();
+            chunk.position(start);
+            chunk.get(destination, destinationOffset, count);
+
+            offset += count;
+            destinationOffset += count;
+            length -= count;
+        }
+    }
+
+    // A single chunk table over the next byteLength(m, width) bytes of buffer, from its position
+    // on (the buffer's position is left as is). The bytes are read in place, so they must not change
+    // while the table is in use.
+    public static ByteBufferPackedTable slice(ByteBuffer buffer, int m, int width) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(BitPackedTable.byteLength(m, width));
+        return new ByteBufferPackedTable(m, width, slice.slice());
+    }
+
+    private int getByte(long index) {
+        return chunks[(int) (index >>> CHUNK_SHIFT)].get((int) (index & CHUNK_MASK)) & 0xff;
+    }
+}
@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+package edu.utexas.ece.mpc.bloomier.internal;
+
+/**
+ * Polled by long running construction loops so an attempt can be abandoned cooperatively (e.g. on
+ * timeout or because a competing attempt already succeeded).
+ */
+public interface CancellationSignal {
+    boolean isCancelled();
+}
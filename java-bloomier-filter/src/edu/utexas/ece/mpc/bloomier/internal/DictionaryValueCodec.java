@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+// Stores ints as their index into a sorted dictionary of the distinct values, in exactly the
+// fewest bits that can index it (at least one); indexes past the dictionary are rejected. Filters
+// using it keep their check bits as a fingerprint, as the index bits leave none over.
+public class DictionaryValueCodec implements ValueCodec<Integer> {
+    private final Integer[] values;
+    private final int indexBits;
+
+    // The dictionary is sorted and may hold duplicates
+    public DictionaryValueCodec(int[] dictionary) {
+        int[] sorted = dictionary.clone();
+        Arrays.sort(sorted);
+
+        int size = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (size == 0 || sorted[size - 1] != sorted[i]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+
+        values = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = sorted[i];
+        }
+        indexBits = indexBitsFor(size);
+    }
+
+    public static DictionaryValueCodec forValues(Collection<Integer> values) {
+        int[] dictionary = new int[values.size()];
+        int i = 0;
+        for (Integer value: values) {
+            dictionary[i++] = value;
+        }
+        return new DictionaryValueCodec(dictionary);
+    }
+
+    public static int indexBitsFor(int size) {
+        return size <= 2 ? 1 : Integer.SIZE - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    @Override
+    public Class<Integer> getValueClass() {
+        return Integer.class;
+    }
+
+    @Override
+    public void encode(Integer value, byte[] entry, int q) {
+        checkWidth(q);
+        int index = Arrays.binarySearch(values, value);
+        if (index < 0) {
+            throw new IllegalArgumentException("Value isn't in the dictionary: " + value);
+        }
+
+        for (int bit = 0; bit < indexBits; bit++) {
+            if ((index >>> (indexBits - 1 - bit) & 1) != 0) {
+                entry[bit >>> 3] |= 0x80 >>> (bit & 7);
+            }
+        }
+    }
+
+    @Override
+    public Integer decode(byte[] entry, int q) {
+        long index = BitPackedTable.getBits(entry, 0, indexBits);
+        return index < values.length ? values[(int) index] : null;
+    }
+
+    private void checkWidth(int q) {
+        if (q != indexBits) {
+            throw new IllegalArgumentException("Dictionary entries need q = " + indexBits
+                                               + " for " + values.length + " values (q=" + q + ")");
+        }
+    }
+
+    public int getIndexBits() {
+        return indexBits;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    // The distinct values, in index order
+    public int[] getDictionary() {
+        int[] dictionary = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            dictionary[i] = values[i];
+        }
+        return dictionary;
+    }
+}
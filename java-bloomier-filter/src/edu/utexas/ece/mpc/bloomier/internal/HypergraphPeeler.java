@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds an order and matching by peeling the key hypergraph (keys are edges over their distinct
+ * neighborhood slots). Every key is hashed exactly once; afterwards each slot only tracks how many
+ * remaining keys touch it and the XOR of their indices, so a slot of degree one directly names the
+ * key that can be matched to it. Runs in O(n k + m) time with O(n k + m) primitive memory, and the
+ * work arrays are kept between calls so repeated attempts (e.g. trying successive seeds) don't
+ * reallocate.
+ */
+public class HypergraphPeeler<K> {
+    // How many keys/slots are processed between polls of the cancellation signal
+    private static final int CANCELLATION_CHECK_INTERVAL = 1024;
+
+    private int m;
+    private int k;
+
+    private int[] neighborhoods = new int[0]; // k entries per key, -1 marks a duplicate slot
+    private int[] degrees = new int[0];
+    private int[] keyXors = new int[0];
+    private int[] stack = new int[0];
+
+    private int[] order = new int[0]; // key indices in the order they were peeled
+    private int[] iotas = new int[0]; // neighborhood index each peeled key was matched to
+    private int peeled;
+    private boolean[] isPeeled = new boolean[0]; // only filled in by getUnpeeledKeys
+
+    private byte[] keyBuffer = new byte[BloomierHasher.KEY_LENGTH];
+    private int[] neighborhood = new int[0];
+
+    public HypergraphPeeler(int m, int k) {
+        reshape(m, k);
+    }
+
+    // Peels for another table size and k from now on; the work arrays only ever grow
+    public void reshape(int m, int k) {
+        this.m = m;
+        this.k = k;
+
+        if (degrees.length < m) {
+            degrees = new int[m];
+            keyXors = new int[m];
+            stack = new int[m];
+        }
+        if (neighborhood.length != k) {
+            neighborhood = new int[k];
+        }
+    }
+
+    public boolean peel(List<K> keys, BloomierHasher<K> hasher) {
+        return peel(keys, hasher, null);
+    }
+
+    // Returns false if the keys can't be peeled with this hasher or if the signal (may be null)
+    // reported cancellation part way through
+    public boolean peel(List<K> keys, BloomierHasher<K> hasher, CancellationSignal signal) {
+        int n = keys.size();
+        ensureCapacity(n);
+        clearSlots();
+
+        // Hash every key once, recording each distinct slot of its neighborhood
+        for (int key = 0; key < n; key++) {
+            if (isCancelled(signal, key)) {
+                return false;
+            }
+            addKey(key, keys.get(key), hasher);
+        }
+
+        return peelSlots(n, signal);
+    }
+
+    // As above, for the first n keys of an array
+    public boolean peel(K[] keys, int n, BloomierHasher<K> hasher, CancellationSignal signal) {
+        ensureCapacity(n);
+        clearSlots();
+
+        for (int key = 0; key < n; key++) {
+            if (isCancelled(signal, key)) {
+                return false;
+            }
+            addKey(key, keys[key], hasher);
+        }
+
+        return peelSlots(n, signal);
+    }
+
+    private void clearSlots() {
+        for (int slot = 0; slot < m; slot++) {
+            degrees[slot] = 0;
+            keyXors[slot] = 0;
+        }
+    }
+
+    // Hashes one key, recording each distinct slot of its neighborhood
+    private void addKey(int key, K value, BloomierHasher<K> hasher) {
+        keyBuffer = hasher.getKeyBuffer(value, keyBuffer);
+        hasher.hash(value, keyBuffer, neighborhood, null);
+
+        int base = key * k;
+        for (int i = 0; i < k; i++) {
+            int slot = neighborhood[i];
+            if (BloomierHasher.isDuplicate(neighborhood, i)) {
+                slot = -1;
+            } else {
+                degrees[slot]++;
+                keyXors[slot] ^= key;
+            }
+            neighborhoods[base + i] = slot;
+        }
+    }
+
+    private boolean peelSlots(int n, CancellationSignal signal) {
+        int stackSize = 0;
+        for (int slot = 0; slot < m; slot++) {
+            if (degrees[slot] == 1) {
+                stack[stackSize++] = slot;
+            }
+        }
+
+        // A slot is only pushed when its degree first reaches one, so the stack never exceeds m
+        peeled = 0;
+        int iterations = 0;
+        while (stackSize > 0) {
+            if (isCancelled(signal, ++iterations)) {
+                peeled = 0;
+                return false;
+            }
+
+            int slot = stack[--stackSize];
+            if (degrees[slot] != 1) {
+                continue; // Its only key was already peeled through another slot
+            }
+
+            int key = keyXors[slot];
+            int base = key * k;
+
+            order[peeled] = key;
+            for (int i = 0; i < k; i++) {
+                int other = neighborhoods[base + i];
+                if (other == slot) {
+                    iotas[peeled] = i;
+                }
+                if (other < 0) {
+                    continue;
+                }
+
+                degrees[other]--;
+                keyXors[other] ^= key;
+                if (degrees[other] == 1) {
+                    stack[stackSize++] = other;
+                }
+            }
+            peeled++;
+        }
+
+        return peeled == n;
+    }
+
+    // The construction has to fill the table in the reverse of the peeling order: the first key
+    // peeled owns a slot nobody else touches, so it must be stored last
+    public OrderAndMatch<K> getOrderAndMatch(List<K> keys, BloomierHasher<K> hasher) {
+        List<K> pi = new ArrayList<K>(peeled);
+        List<Integer> tau = new ArrayList<Integer>(peeled);
+        for (int i = peeled - 1; i >= 0; i--) {
+            pi.add(keys.get(order[i]));
+            tau.add(iotas[i]);
+        }
+
+        return new OrderAndMatch<K>(hasher.getHashFamily(), hasher.getKeyFunnel(),
+                                    hasher.getHashSeed(), pi, tau);
+    }
+
+    public int getPeeledCount() {
+        return peeled;
+    }
+
+    // Index (into the peeled keys) of the i-th key peeled
+    public int getPeeledKey(int i) {
+        return order[i];
+    }
+
+    // Neighborhood index the i-th peeled key was matched to
+    public int getPeeledIota(int i) {
+        return iotas[i];
+    }
+
+    // After a peel of n keys that failed (but wasn't cancelled), writes the indices of the keys
+    // left in the hypergraph's core into unpeeled (which needs room for n - getPeeledCount()). The
+    // peeled keys still form a valid order and matching on their own: every slot a key was matched
+    // to had no other key left, core keys included.
+    public void getUnpeeledKeys(int n, int[] unpeeled) {
+        if (isPeeled.length < n) {
+            isPeeled = new boolean[n];
+        }
+        for (int key = 0; key < n; key++) {
+            isPeeled[key] = false;
+        }
+        for (int i = 0; i < peeled; i++) {
+            isPeeled[order[i]] = true;
+        }
+
+        int count = 0;
+        for (int key = 0; key < n; key++) {
+            if (!isPeeled[key]) {
+                unpeeled[count++] = key;
+            }
+        }
+    }
+
+    private static boolean isCancelled(CancellationSignal signal, int progress) {
+        return signal != null && progress % CANCELLATION_CHECK_INTERVAL == 0 && signal.isCancelled();
+    }
+
+    private void ensureCapacity(int n) {
+        if (neighborhoods.length < n * k) {
+            neighborhoods = new int[n * k];
+        }
+        if (order.length < n) {
+            order = new int[n];
+            iotas = new int[n];
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+package edu.utexas.ece.mpc.bloomier.internal;
+
+// Stores ints as their fixed width (big-endian two's complement) 32 bits; the q - 32 bits after
+// them must be zero for an entry to be accepted
+public class IntValueCodec implements ValueCodec<Integer> {
+    public static final IntValueCodec INSTANCE = new IntValueCodec();
+
+    private IntValueCodec() {
+        // Stateless; use INSTANCE
+    }
+
+    @Override
+    public Class<Integer> getValueClass() {
+        return Integer.class;
+    }
+
+    @Override
+    public void encode(Integer value, byte[] entry, int q) {
+        checkWidth(q);
+
+        int bits = value;
+        for (int i = 0; i < Integer.SIZE / Byte.SIZE; i++) {
+            entry[i] = (byte) (bits >>> (Integer.SIZE - Byte.SIZE * (i + 1)));
+        }
+    }
+
+    @Override
+    public Integer decode(byte[] entry, int q) {
+        long bits = BitPackedTable.getBits(entry, 0, q);
+        return isValid(bits, q) ? Integer.valueOf(valueOf(bits, q)) : null;
+    }
+
+    public static void checkWidth(int q) {
+        if (q < Integer.SIZE || q > Long.SIZE) {
+            throw new IllegalArgumentException("Int entries need " + Integer.SIZE + " <= q <= "
+                                               + Long.SIZE + " (q=" + q + ")");
+        }
+    }
+
+    // For an entry read as a right aligned q bit long
+    public static boolean isValid(long entry, int q) {
+        int checkBits = q - Integer.SIZE;
+        return checkBits == 0 || (entry & ((1L << checkBits) - 1)) == 0;
+    }
+
+    public static int valueOf(long entry, int q) {
+        return (int) (entry >>> (q - Integer.SIZE));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.ObjectBuffer;
+import com.esotericsoftware.kryo.SerializationException;
+
+// Encodes arbitrary values with kryo; the zero bits left over after the encoded value are what
+// detect false positives. Codecs are shared per value class (see forClass), and as kryo is told the
+// class to read, every codec uses the same kryo instance and buffer; they aren't thread safe, so each
+// thread gets its own.
+public class KryoValueCodec<V> implements ValueCodec<V> {
+    private static final int DEFAULT_OBJECT_BUFFER_INITIAL_SIZE = 2 * 1024;
+
+    private static final ConcurrentMap<Class<?>, KryoValueCodec<?>> codecs =
+            new ConcurrentHashMap<Class<?>, KryoValueCodec<?>>();
+
+    private static final ThreadLocal<State> states = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
+
+    private final Class<V> valueClass;
+
+    private KryoValueCodec(Class<V> valueClass) {
+        this.valueClass = valueClass;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> KryoValueCodec<V> forClass(Class<V> valueClass) {
+        KryoValueCodec<?> codec = codecs.get(valueClass);
+        if (codec == null) {
+            codec = new KryoValueCodec<V>(valueClass);
+            KryoValueCodec<?> existing = codecs.putIfAbsent(valueClass, codec);
+            if (existing != null) {
+                codec = existing;
+            }
+        }
+        return (KryoValueCodec<V>) codec;
+    }
+
+    @Override
+    public Class<V> getValueClass() {
+        return valueClass;
+    }
+
+    @Override
+    public void encode(V value, byte[] entry, int q) {
+        byte[] serializedValue = states.get().kryoSerializer.writeObjectData(value);
+        if (serializedValue.length * Byte.SIZE > q) {
+            throw new IllegalArgumentException("Encoded values are too big to fit in table (q=" + q
+                                               + "; must be >= " + serializedValue.length
+                                               * Byte.SIZE + ")");
+        }
+
+        System.arraycopy(serializedValue, 0, entry, 0, serializedValue.length);
+    }
+
+    @Override
+    public V decode(byte[] entry, int q) {
+        State state = states.get();
+        ByteBuffer buffer = state.wrap(entry);
+        buffer.limit(BitPackedTable.entryBytes(q));
+
+        V result;
+        try {
+            result = state.kryo.readObjectData(buffer, valueClass);
+        } catch (SerializationException e) {
+            return null; // Serialization exception likely caused by trying to decode non existent entry
+        }
+
+        // Check leftovers (all must be zero of this is a detected false positive)
+        while (buffer.hasRemaining()) {
+            if (buffer.get() != 0) {
+                return null;
+            }
+        }
+
+        return result;
+    }
+
+    private static class State {
+        private final Kryo kryo;
+        private final ObjectBuffer kryoSerializer;
+
+        // Lookups decode from the same (per-thread scratch) array every time, so its wrapper is kept
+        private ByteBuffer decodeBuffer;
+
+        State() {
+            kryo = new Kryo();
+            kryo.setRegistrationOptional(true);
+            kryoSerializer = new ObjectBuffer(kryo, DEFAULT_OBJECT_BUFFER_INITIAL_SIZE,
+                                              Integer.MAX_VALUE);
+        }
+
+        ByteBuffer wrap(byte[] entry) {
+            if (decodeBuffer == null || decodeBuffer.array() != entry) {
+                decodeBuffer = ByteBuffer.wrap(entry);
+            }
+            decodeBuffer.clear();
+            return decodeBuffer;
+        }
+    }
+}
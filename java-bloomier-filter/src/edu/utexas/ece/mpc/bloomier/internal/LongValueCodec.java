@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+package edu.utexas.ece.mpc.bloomier.internal;
+
+// Stores longs as their fixed width (big-endian two's complement) 64 bits; the q - 64 bits after
+// them must be zero for an entry to be accepted
+public class LongValueCodec implements ValueCodec<Long> {
+    public static final LongValueCodec INSTANCE = new LongValueCodec();
+
+    // Check bits are read as a single long
+    public static final int MAX_Q = 2 * Long.SIZE;
+
+    private LongValueCodec() {
+        // Stateless; use INSTANCE
+    }
+
+    @Override
+    public Class<Long> getValueClass() {
+        return Long.class;
+    }
+
+    @Override
+    public void encode(Long value, byte[] entry, int q) {
+        checkWidth(q);
+
+        long bits = value;
+        for (int i = 0; i < Long.SIZE / Byte.SIZE; i++) {
+            entry[i] = (byte) (bits >>> (Long.SIZE - Byte.SIZE * (i + 1)));
+        }
+    }
+
+    @Override
+    public Long decode(byte[] entry, int q) {
+        long check = BitPackedTable.getBits(entry, Long.SIZE, q - Long.SIZE);
+        if (check != 0) {
+            return null;
+        }
+        return BitPackedTable.getBits(entry, 0, Long.SIZE);
+    }
+
+    public static void checkWidth(int q) {
+        if (q < Long.SIZE || q > MAX_Q) {
+            throw new IllegalArgumentException("Long entries need " + Long.SIZE + " <= q <= "
+                                               + MAX_Q + " (q=" + q + ")");
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.util.Arrays;
+
+/**
+ * Per-thread buffers for lookups, so that a get() doesn't allocate. Hash families size their output
+ * by the arrays they're handed, so arrays are kept per length; a thread querying filters with a few
+ * different shapes settles on a few arrays of each kind.
+ */
+public final class LookupScratch {
+    private static final ThreadLocal<LookupScratch> SCRATCH = new ThreadLocal<LookupScratch>() {
+        @Override
+        protected LookupScratch initialValue() {
+            return new LookupScratch();
+        }
+    };
+
+    private byte[] key = new byte[BloomierHasher.KEY_LENGTH];
+    private final long[] words = new long[2];
+    private int[][] neighborhoods = new int[8][];
+    private byte[][] masks = new byte[16][];
+    private byte[][] entries = new byte[16][];
+    private int[] batchSlots = new int[0];
+    private long[] batchWords = new long[0];
+
+    private LookupScratch() {
+        // Use get()
+    }
+
+    // The calling thread's scratch; contents are only valid until the next lookup on this thread
+    public static LookupScratch get() {
+        return SCRATCH.get();
+    }
+
+    // At least length long
+    public byte[] getKey(int length) {
+        if (key.length < length) {
+            key = new byte[Math.max(length, 2 * key.length)];
+        }
+        return key;
+    }
+
+    public long[] getWords() {
+        return words;
+    }
+
+    public int[] getNeighborhood(int k) {
+        if (k >= neighborhoods.length) {
+            neighborhoods = Arrays.copyOf(neighborhoods, k + 1);
+        }
+        if (neighborhoods[k] == null) {
+            neighborhoods[k] = new int[k];
+        }
+        return neighborhoods[k];
+    }
+
+    public byte[] getMask(int length) {
+        if (length >= masks.length) {
+            masks = Arrays.copyOf(masks, length + 1);
+        }
+        if (masks[length] == null) {
+            masks[length] = new byte[length];
+        }
+        return masks[length];
+    }
+
+    // At least length long, not cleared between uses
+    public int[] getBatchSlots(int length) {
+        if (batchSlots.length < length) {
+            batchSlots = new int[length];
+        }
+        return batchSlots;
+    }
+
+    // At least length long, not cleared between uses
+    public long[] getBatchWords(int length) {
+        if (batchWords.length < length) {
+            batchWords = new long[length];
+        }
+        return batchWords;
+    }
+
+    // Not cleared between uses
+    public byte[] getEntry(int length) {
+        if (length >= entries.length) {
+            entries = Arrays.copyOf(entries, length + 1);
+        }
+        if (entries[length] == null) {
+            entries[length] = new byte[length];
+        }
+        return entries[length];
+    }
+}
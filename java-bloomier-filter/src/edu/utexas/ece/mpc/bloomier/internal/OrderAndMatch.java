@@ -13,13 +13,31 @@ package edu.utexas.ece.mpc.bloomier.internal;
 
 import java.util.List;
 
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.hash.HashFamily;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+
 public class OrderAndMatch<K> {
 
+    private HashFamily hashFamily;
+    private KeyFunnel<? super K> keyFunnel;
     private long hashSeed;
     private List<K> pi;
     private List<Integer> tau;
 
     public OrderAndMatch(long hashSeed, List<K> pi, List<Integer> tau) {
+        this(HashFamilies.DEFAULT, hashSeed, pi, tau);
+    }
+
+    public OrderAndMatch(HashFamily hashFamily, long hashSeed, List<K> pi, List<Integer> tau) {
+        this(hashFamily, KeyFunnels.DEFAULT, hashSeed, pi, tau);
+    }
+
+    public OrderAndMatch(HashFamily hashFamily, KeyFunnel<? super K> keyFunnel, long hashSeed,
+                         List<K> pi, List<Integer> tau) {
+        this.hashFamily = hashFamily;
+        this.keyFunnel = keyFunnel;
         this.hashSeed = hashSeed;
         this.pi = pi;
         this.tau = tau;
@@ -33,6 +51,14 @@ public class OrderAndMatch<K> {
         return tau;
     }
 
+    public HashFamily getHashFamily() {
+        return hashFamily;
+    }
+
+    public KeyFunnel<? super K> getKeyFunnel() {
+        return keyFunnel;
+    }
+
     public long getHashSeed() {
         return hashSeed;
     }
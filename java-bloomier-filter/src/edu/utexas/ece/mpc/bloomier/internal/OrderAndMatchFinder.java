@@ -8,26 +8,32 @@
  * See included LICENSE.txt for licensing details
  * 
  */
-
 package edu.utexas.ece.mpc.bloomier.internal;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.hash.HashFamily;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
 
 public class OrderAndMatchFinder<K> {
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    HashFamily hashFamily;
+    KeyFunnel<? super K> keyFunnel = KeyFunnels.DEFAULT;
     long hashSeed = Long.MIN_VALUE;
     BloomierHasher<K> hasher;
 
-    List<K> pi;
-    List<Integer> tau;
-
     OrderAndMatch<K> oam;
 
     Collection<K> keys;
@@ -36,6 +42,11 @@ public class OrderAndMatchFinder<K> {
     int q;
 
     public OrderAndMatchFinder(Collection<K> keys, int m, int k, int q) {
+        this(keys, m, k, q, HashFamilies.DEFAULT);
+    }
+
+    public OrderAndMatchFinder(Collection<K> keys, int m, int k, int q, HashFamily hashFamily) {
+        this.hashFamily = hashFamily;
         this.keys = keys;
         this.m = m;
         this.k = k;
@@ -48,48 +59,94 @@ public class OrderAndMatchFinder<K> {
         hashSeed = hashSeedHint;
     }
 
-    public OrderAndMatch<K> find(long timeoutMs) throws TimeoutException {
-        final AtomicBoolean hasTimedOut = new AtomicBoolean(false);
-        Timer timer = null;
-        try {
-            if (timeoutMs < Long.MAX_VALUE) {
-                timer = new Timer(true);
-                timer.schedule(new TimerTask() {
+    public OrderAndMatchFinder(Collection<K> keys, int m, int k, int q, HashFamily hashFamily,
+                               long hashSeedHint) {
+        this(keys, m, k, q, hashFamily);
 
-                    @Override
-                    public void run() {
-                        hasTimedOut.set(true);
-                    }
-                }, timeoutMs);
-            }
+        hashSeed = hashSeedHint;
+    }
 
-            for (long i = 0; i < Long.MAX_VALUE; i++) {
-                // First check for timeout
-                if (hasTimedOut.get()) {
-                    throw new TimeoutException(
-                                               String.format("Could not find order and matching for key set in alloted time with specified parameters (m=%d;k=%d;q=%d)",
-                                                             m, k, q));
-                }
+    public OrderAndMatchFinder(Collection<K> keys, int m, int k, int q, HashFamily hashFamily,
+                               KeyFunnel<? super K> keyFunnel, long hashSeedHint) {
+        this(keys, m, k, q, hashFamily, hashSeedHint);
 
-                hasher = new BloomierHasher<K>(hashSeed, m, k, q);
+        this.keyFunnel = keyFunnel;
+    }
 
-                pi = new ArrayList<K>(keys.size());
-                tau = new ArrayList<Integer>(keys.size());
+    public OrderAndMatch<K> find(long timeoutMs) throws TimeoutException {
+        return find(timeoutMs, null);
+    }
 
-                if (findMatch(new ArrayList<K>(keys))) { // findMatch modifies key collection, so make copy
-                    oam = new OrderAndMatch<K>(hashSeed, pi, tau);
-                    break;
-                }
+    // As above, reporting each attempted seed to the monitor (may be null); a search the monitor
+    // cancels ends with a CancellationException
+    public OrderAndMatch<K> find(long timeoutMs, final SearchMonitor monitor)
+            throws TimeoutException {
+        final long deadline = deadlineFor(timeoutMs);
+        CancellationSignal timeout = new CancellationSignal() {
+
+            @Override
+            public boolean isCancelled() {
+                return hasPassed(deadline) || (monitor != null && monitor.isCancelled());
+            }
+        };
+
+        List<K> keyList = new ArrayList<K>(keys);
+        HypergraphPeeler<K> peeler = new HypergraphPeeler<K>(m, k);
 
-                hashSeed++; // will wrap around if a hashSeedHint was provided
+        for (long i = 0; i < Long.MAX_VALUE; i++) {
+            // First check for cancellation and timeout
+            if (monitor != null && monitor.isCancelled()) {
+                throw new CancellationException("Order and matching search cancelled");
+            }
+            if (hasPassed(deadline)) {
+                throw timeoutException();
+            }
+
+            hasher = new BloomierHasher<K>(hashFamily, keyFunnel, hashSeed, m, k, q);
+            if (monitor != null) {
+                monitor.attemptStarted(hashSeed);
             }
 
-        } finally {
-            if (timer != null) {
-                timer.cancel();
+            if (peeler.peel(keyList, hasher, timeout)) {
+                oam = peeler.getOrderAndMatch(keyList, hasher);
+                break;
             }
+
+            hashSeed++; // will wrap around if a hashSeedHint was provided
+        }
+
+        return oam;
+    }
+
+    public OrderAndMatch<K> findParallel(long timeoutMs, boolean lowestSeed)
+            throws TimeoutException {
+        return findParallel(timeoutMs, ForkJoinPool.commonPool(), lowestSeed);
+    }
+
+    // Races pool.getParallelism() attempts on consecutive seeds (starting at the current hash seed).
+    // With lowestSeed the result is the same one find() would have produced; otherwise the first
+    // attempt to succeed wins. Attempts that can no longer win abandon their peeling cooperatively.
+    public OrderAndMatch<K> findParallel(long timeoutMs, ForkJoinPool pool, boolean lowestSeed)
+            throws TimeoutException {
+        long deadline = deadlineFor(timeoutMs);
+        ParallelSearch search = new ParallelSearch(new ArrayList<K>(keys), hashSeed, deadline,
+                                                   lowestSeed);
+
+        List<SeedRacer> racers = new ArrayList<SeedRacer>();
+        for (int i = 0; i < Math.max(1, pool.getParallelism()); i++) {
+            racers.add(new SeedRacer(search));
+        }
+
+        pool.invoke(new SeedRace(racers));
+
+        if (search.winner == null) {
+            throw timeoutException();
         }
 
+        hasher = search.winningHasher;
+        hashSeed = hasher.getHashSeed();
+        oam = search.winner;
+
         return oam;
     }
 
@@ -109,40 +166,113 @@ public class OrderAndMatchFinder<K> {
         return hasher;
     }
 
-    private boolean findMatch(Collection<K> remainingKeys) {
-        if (remainingKeys.isEmpty()) {
-            return true;
+    private TimeoutException timeoutException() {
+        return new TimeoutException(
+                                    String.format("Could not find order and matching for key set in alloted time with specified parameters (m=%d;k=%d;q=%d)",
+                                                  m, k, q));
+    }
+
+    private static long deadlineFor(long timeoutMs) {
+        if (timeoutMs >= TimeUnit.NANOSECONDS.toMillis(Long.MAX_VALUE) / 2) {
+            return NO_DEADLINE;
         }
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    }
+
+    private static boolean hasPassed(long deadline) {
+        return deadline != NO_DEADLINE && System.nanoTime() - deadline >= 0;
+    }
+
+    private class ParallelSearch {
+        final List<K> keyList;
+        final long baseSeed;
+        final long deadline;
+        final boolean lowestSeed;
 
-        Queue<K> piQueue = new LinkedList<K>();
-        Queue<Integer> tauQueue = new LinkedList<Integer>();
+        final AtomicLong nextOffset = new AtomicLong();
+        final AtomicLong winningOffset = new AtomicLong(Long.MAX_VALUE);
 
-        SingletonFindingTweaker<K> tweaker = new SingletonFindingTweaker<K>(remainingKeys, hasher);
+        OrderAndMatch<K> winner; // Guarded by this
+        BloomierHasher<K> winningHasher; // Guarded by this
 
-        for (K key: remainingKeys) {
-            Integer iota = tweaker.tweak(key);
-            if (iota != null) {
-                piQueue.add(key);
-                tauQueue.add(iota);
+        ParallelSearch(List<K> keyList, long baseSeed, long deadline, boolean lowestSeed) {
+            this.keyList = keyList;
+            this.baseSeed = baseSeed;
+            this.deadline = deadline;
+            this.lowestSeed = lowestSeed;
+        }
+
+        // An attempt is worth continuing until the deadline or until an attempt that takes
+        // precedence over it has succeeded
+        boolean isObsolete(long offset) {
+            long winning = winningOffset.get();
+            if (lowestSeed) {
+                return winning < offset || hasPassed(deadline);
+            } else {
+                return winning != Long.MAX_VALUE || hasPassed(deadline);
             }
         }
 
-        if (piQueue.isEmpty()) {
-            return false;
+        synchronized void offer(long offset, OrderAndMatch<K> candidate,
+                                BloomierHasher<K> candidateHasher) {
+            if (offset < winningOffset.get()) {
+                winningOffset.set(offset);
+                winner = candidate;
+                winningHasher = candidateHasher;
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class SeedRacer extends RecursiveAction {
+        private final ParallelSearch search;
+
+        SeedRacer(ParallelSearch search) {
+            this.search = search;
         }
 
-        // Only pass along non-"easy" keys to next iteration
-        remainingKeys.removeAll(piQueue);
+        @Override
+        protected void compute() {
+            HypergraphPeeler<K> peeler = new HypergraphPeeler<K>(m, k);
 
-        if (remainingKeys.isEmpty() == false) {
-            if (findMatch(remainingKeys) == false) {
-                return false;
+            while (true) {
+                // Offsets are claimed in increasing order, so once one is obsolete all later ones are
+                final long offset = search.nextOffset.getAndIncrement();
+                if (search.isObsolete(offset)) {
+                    return;
+                }
+
+                BloomierHasher<K> candidateHasher = new BloomierHasher<K>(hashFamily, keyFunnel,
+                                                                          search.baseSeed
+                                                                                  + offset, m,
+                                                                          k, q);
+                CancellationSignal obsolete = new CancellationSignal() {
+
+                    @Override
+                    public boolean isCancelled() {
+                        return search.isObsolete(offset);
+                    }
+                };
+
+                if (peeler.peel(search.keyList, candidateHasher, obsolete)) {
+                    search.offer(offset, peeler.getOrderAndMatch(search.keyList, candidateHasher),
+                                 candidateHasher);
+                }
             }
         }
+    }
 
-        pi.addAll(piQueue);
-        tau.addAll(tauQueue);
+    @SuppressWarnings("serial")
+    private class SeedRace extends RecursiveAction {
+        private final List<SeedRacer> racers;
 
-        return true;
+        SeedRace(List<SeedRacer> racers) {
+            this.racers = racers;
+        }
+
+        @Override
+        protected void compute() {
+            ForkJoinTask.invokeAll(racers);
+        }
     }
-}
\ No newline at end of file
+}
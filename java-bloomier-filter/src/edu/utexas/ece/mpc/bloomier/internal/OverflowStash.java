@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.util.Arrays;
+
+/**
+ * The few keys a construction couldn't peel, kept beside the table instead of retrying with another
+ * seed. Keys are identified by a 64 bit id mixed from the neighborhood and mask their lookup
+ * computes anyway (see idOf), so checking the stash costs no extra hashing; ids are kept sorted
+ * and found by binary search. Immutable once built.
+ */
+public class OverflowStash<V> {
+    private static final OverflowStash<?> EMPTY = new OverflowStash<Object>(new long[0],
+                                                                            new Object[0]);
+
+    private final long[] ids;
+    private final Object[] values;
+
+    private OverflowStash(long[] ids, Object[] values) {
+        this.ids = ids;
+        this.values = values;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> OverflowStash<V> empty() {
+        return (OverflowStash<V>) EMPTY;
+    }
+
+    // The first count ids and values, in any order; ids must be distinct
+    public static <V> OverflowStash<V> of(long[] ids, V[] values, int count) {
+        if (count == 0) {
+            return empty();
+        }
+
+        // Stashes hold a handful of keys, so an insertion sort does
+        long[] sortedIds = Arrays.copyOf(ids, count);
+        Object[] sortedValues = Arrays.copyOf(values, count, Object[].class);
+        for (int i = 1; i < count; i++) {
+            long id = sortedIds[i];
+            Object value = sortedValues[i];
+            int j = i - 1;
+            for (; j >= 0 && sortedIds[j] > id; j--) {
+                sortedIds[j + 1] = sortedIds[j];
+                sortedValues[j + 1] = sortedValues[j];
+            }
+            if (j >= 0 && sortedIds[j] == id) {
+                throw new IllegalArgumentException("Stashed keys must have distinct ids");
+            }
+            sortedIds[j + 1] = id;
+            sortedValues[j + 1] = value;
+        }
+        return new OverflowStash<V>(sortedIds, sortedValues);
+    }
+
+    // Mixes a key's neighborhood (k slots) into the first min(q, 64) bits of its mask
+    public static long idOf(int[] neighborhood, int k, byte[] mask, int q) {
+        long id = BitPackedTable.getBits(mask, 0, Math.min(q, Long.SIZE));
+        for (int i = 0; i < k; i++) {
+            id = (id ^ neighborhood[i]) * 0x9e3779b97f4a7c15L;
+            id ^= id >>> 29;
+        }
+        return id;
+    }
+
+    // Index of the stashed key with this id, or -1
+    public int indexOf(long id) {
+        int index = Arrays.binarySearch(ids, id);
+        return index < 0 ? -1 : index;
+    }
+
+    public boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public long getId(int index) {
+        return ids[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V getValue(int index) {
+        return (V) values[index];
+    }
+}
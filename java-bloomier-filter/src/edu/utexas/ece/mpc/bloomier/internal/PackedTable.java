@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+package edu.utexas.ece.mpc.bloomier.internal;
+
+/**
+ * Read access to m entries of exactly width bits, packed back to back (see BitPackedTable for the
+ * bit layout), regardless of where the bits actually live.
+ */
+public interface PackedTable {
+    int getM();
+
+    int getWidth();
+
+    int getEntryBytes();
+
+    long getByteLength();
+
+    // XORs the entry's width bits into the front of entry (which must hold getEntryBytes() bytes)
+    void xorEntryInto(int slot, byte[] entry);
+
+    // Reads count (at most 64) bits starting at bitOffset, right aligned in the result
+    long getBits(long bitOffset, int count);
+
+    void copyBytes(long offset, byte[] destination, int destinationOffset, int length);
+}
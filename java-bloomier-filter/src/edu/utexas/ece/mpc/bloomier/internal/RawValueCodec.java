@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.util.Arrays;
+
+// Passes through values that were already encoded (by another codec) into entry sized arrays
+public class RawValueCodec implements ValueCodec<byte[]> {
+    public static final RawValueCodec INSTANCE = new RawValueCodec();
+
+    private RawValueCodec() {
+        // Stateless; use INSTANCE
+    }
+
+    @Override
+    public Class<byte[]> getValueClass() {
+        return byte[].class;
+    }
+
+    @Override
+    public void encode(byte[] value, byte[] entry, int q) {
+        System.arraycopy(value, 0, entry, 0, BitPackedTable.entryBytes(q));
+    }
+
+    @Override
+    public byte[] decode(byte[] entry, int q) {
+        return Arrays.copyOf(entry, BitPackedTable.entryBytes(q));
+    }
+}
@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+/**
+ * Follows an order and matching search: told about each hash seed attempted, and polled (between
+ * and during attempts) for whether the search should be abandoned.
+ */
+public interface SearchMonitor extends CancellationSignal {
+    void attemptStarted(long hashSeed);
+}
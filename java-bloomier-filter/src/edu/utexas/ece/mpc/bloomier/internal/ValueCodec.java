@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+package edu.utexas.ece.mpc.bloomier.internal;
+
+/**
+ * Converts values to and from the q bit table entries of a filter. Entries are handled unpacked:
+ * the q bits at the front of a byte array of at least ceil(q / 8) bytes, followed by zero bits.
+ * Filters share their codec between threads, so implementations must be thread safe.
+ */
+public interface ValueCodec<V> {
+    Class<V> getValueClass();
+
+    // Writes value into entry (which is all zero); must throw IllegalArgumentException if the
+    // encoding doesn't fit in q bits
+    void encode(V value, byte[] entry, int q);
+
+    // Decodes an entry recovered for some key; returns null if the entry can't have been written
+    // by encode (i.e. the key was never stored and this is a detected false positive)
+    V decode(byte[] entry, int q);
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+import edu.utexas.ece.mpc.bloomier.internal.IntValueCodec;
+
+public class BinaryFuseRetrievalTest {
+    BinaryFuseRetrieval<Integer, Integer> uut;
+    Map<Integer, Integer> map;
+
+    @Before
+    public void setUp() throws Exception {
+        map = new HashMap<Integer, Integer>();
+
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, i);
+        }
+
+        uut = new BinaryFuseRetrieval<Integer, Integer>(map, 32, Integer.class, 10000, 0);
+    }
+
+    @Test
+    public void member() {
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), uut.get(i));
+        }
+    }
+
+    @Test
+    public void notMember() {
+        Integer result = uut.get(2000);
+        Assert.assertNull(result);
+    }
+
+    @Test
+    public void tableRoundTrip() {
+        BinaryFuseRetrieval<Integer, Integer> copy;
+        copy = new BinaryFuseRetrieval<Integer, Integer>(uut.getQ(), Integer.class,
+                                                         uut.getHashSeed(),
+                                                         uut.getSegmentLength(),
+                                                         uut.getSegmentCount(),
+                                                         uut.getFlatTable());
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), copy.get(i));
+        }
+    }
+
+    @Test
+    public void largeKeySet() throws Exception {
+        Map<Integer, Integer> large = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 200000; i++) {
+            large.put(i * 31, i);
+        }
+
+        BinaryFuseRetrieval<Integer, Integer> fuse;
+        fuse = new BinaryFuseRetrieval<Integer, Integer>(large, 41, IntValueCodec.INSTANCE,
+                                                         KeyFunnels.INTEGER, 10000, 0);
+
+        // Well under the 1.22 slots per key a Bloomier table needs
+        Assert.assertTrue(fuse.getM() < 200000 * 1.2);
+        assertEquals(BinaryFuseRetrieval.getArrayLength(200000), fuse.getM());
+        for (int i = 0; i < 200000; i++) {
+            assertEquals(Integer.valueOf(i), fuse.get(i * 31));
+        }
+    }
+
+    @Test
+    public void tinyKeySets() throws Exception {
+        for (int n = 0; n < 20; n++) {
+            Map<Integer, Integer> tiny = new HashMap<Integer, Integer>();
+            for (int i = 0; i < n; i++) {
+                tiny.put(i, i);
+            }
+
+            BinaryFuseRetrieval<Integer, Integer> fuse;
+            fuse = new BinaryFuseRetrieval<Integer, Integer>(tiny, 41, IntValueCodec.INSTANCE,
+                                                             KeyFunnels.INTEGER, 10000, 0);
+            for (int i = 0; i < n; i++) {
+                assertEquals(Integer.valueOf(i), fuse.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void repeatedHashCodes() throws Exception {
+        Map<String, Integer> collide = new HashMap<String, Integer>();
+        collide.put("Aa", 1);
+        collide.put("BB", 2); // Same String hash code
+
+        BinaryFuseRetrieval<String, Integer> fuse;
+        fuse = new BinaryFuseRetrieval<String, Integer>(collide, 32, IntValueCodec.INSTANCE,
+                                                        KeyFunnels.STRING, 10000, 0);
+        assertEquals(Integer.valueOf(1), fuse.get("Aa"));
+        assertEquals(Integer.valueOf(2), fuse.get("BB"));
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void repeatedEncodings() throws Exception {
+        Map<Long, Integer> collide = new HashMap<Long, Integer>();
+        collide.put(1L, 1);
+        collide.put(1L << 32, 2); // Long hash codes fold the halves together
+
+        new BinaryFuseRetrieval<Long, Integer>(collide, 32, Integer.class, 100, 0);
+    }
+}
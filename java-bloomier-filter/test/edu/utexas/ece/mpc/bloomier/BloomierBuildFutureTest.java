@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+
+public class BloomierBuildFutureTest {
+    ExecutorService executor;
+    Map<Integer, Integer> map;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+
+        map = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 10000; i++) {
+            map.put(i, i * 31 - 5000);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void build() throws Exception {
+        BloomierBuildFuture<IntBloomierFilter<Integer>> future;
+        future = IntBloomierFilter.buildAsync(map, 13000, 3, 41, HashFamilies.MURMUR3, 0, executor);
+
+        IntBloomierFilter<Integer> filter = future.get(10, TimeUnit.SECONDS);
+        for (int i = 0; i < map.size(); i++) {
+            assertEquals(map.get(i).intValue(), filter.getInt(i, -1));
+        }
+        assertTrue(future.getAttempts() >= 1);
+        assertEquals(filter.getHashSeed(), future.getHashSeed());
+        assertTrue(future.isFilling());
+
+        ImmutableBloomierFilter<Integer, Integer> generic;
+        generic = ImmutableBloomierFilter.buildAsync(map, 13000, 3, 41, Integer.class,
+                                                     HashFamilies.MURMUR3, 0, executor)
+                                         .get(10, TimeUnit.SECONDS);
+        assertEquals(map.get(42), generic.get(42));
+    }
+
+    @Test
+    public void cancel() throws Exception {
+        // Far too few slots to ever peel, so the search would run forever
+        BloomierBuildFuture<IntBloomierFilter<Integer>> future;
+        future = IntBloomierFilter.buildAsync(map, map.size(), 3, 41, HashFamilies.MURMUR3, 0,
+                                              executor);
+        while (future.getAttempts() < 2) {
+            Thread.sleep(1);
+        }
+
+        assertTrue(future.cancel(true));
+        assertFalse(future.isFilling());
+
+        // The executor's only thread has to be given back for this to run
+        Integer next = executor.submit(new Callable<Integer>() {
+
+            @Override
+            public Integer call() {
+                return 42;
+            }
+        }).get(10, TimeUnit.SECONDS);
+        assertEquals(42, next.intValue());
+    }
+
+    @Test
+    public void cancelBeforeStart() throws Exception {
+        BloomierBuildFuture<IntBloomierFilter<Integer>> blocker;
+        blocker = IntBloomierFilter.buildAsync(map, map.size(), 3, 41, HashFamilies.MURMUR3, 0,
+                                               executor);
+        BloomierBuildFuture<IntBloomierFilter<Integer>> queued;
+        queued = IntBloomierFilter.buildAsync(map, 13000, 3, 41, HashFamilies.MURMUR3, 0, executor);
+
+        queued.cancel(true);
+        blocker.cancel(true);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, queued.getAttempts());
+    }
+
+    @Test
+    public void builder() throws Exception {
+        IntBloomierBuilder<Integer> builder = new IntBloomierBuilder<Integer>(HashFamilies.MURMUR3);
+        builder.setMaxStashSize(16);
+        BloomierParameters parameters = BloomierParameters.plan(map.size(), Integer.SIZE,
+                                                                1.0 / (1 << 9));
+
+        BloomierBuildFuture<ImmutableBloomierFilter<Integer, Integer>> future;
+        future = builder.buildAsync(map, parameters, 0, executor);
+
+        ImmutableBloomierFilter<Integer, Integer> filter = future.get(10, TimeUnit.SECONDS);
+        assertTrue(filter instanceof IntBloomierFilter);
+        assertTrue(filter.getStash().size() <= 16);
+        for (int i = 0; i < map.size(); i++) {
+            assertEquals(map.get(i), filter.get(i));
+        }
+        assertTrue(future.getAttempts() >= 1);
+        assertEquals(filter.getHashSeed(), future.getHashSeed());
+        assertTrue(future.isFilling());
+    }
+
+    @Test
+    public void cancelBuilder() throws Exception {
+        // Planned for half the keys, so the search would run forever
+        IntBloomierBuilder<Integer> builder = new IntBloomierBuilder<Integer>(HashFamilies.MURMUR3);
+        BloomierParameters small = BloomierParameters.plan(map.size() / 2, Integer.SIZE,
+                                                           1.0 / (1 << 9));
+        BloomierBuildFuture<ImmutableBloomierFilter<Integer, Integer>> future;
+        future = builder.buildAsync(map, small, 0, executor);
+        while (future.getAttempts() < 2) {
+            Thread.sleep(1);
+        }
+
+        assertTrue(future.cancel(true));
+        assertFalse(future.isFilling());
+
+        // Once the executor's thread is given back, the builder is free for the next build
+        BloomierParameters parameters = BloomierParameters.plan(map.size(), Integer.SIZE,
+                                                                1.0 / (1 << 9));
+        ImmutableBloomierFilter<Integer, Integer> filter;
+        filter = builder.buildAsync(map, parameters, 0, executor).get(10, TimeUnit.SECONDS);
+        assertEquals(map.get(42), filter.get(42));
+    }
+}
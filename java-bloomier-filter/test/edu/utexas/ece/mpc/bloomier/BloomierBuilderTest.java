@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatch;
+
+public class BloomierBuilderTest {
+    private static final int REBUILDS = 50;
+
+    Map<Integer, Integer> map;
+
+    @Before
+    public void setUp() {
+        map = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, i * 31 - 5000);
+        }
+    }
+
+    @Test
+    public void sameFilterAsConstructor() {
+        IntBloomierBuilder<Integer> builder = new IntBloomierBuilder<Integer>(HashFamilies.MURMUR3);
+        OrderAndMatch<Integer> oam;
+        oam = ImmutableBloomierFilter.findWithoutTimeout(map, 1300, 3, 41, HashFamilies.MURMUR3,
+                                                         KeyFunnels.DEFAULT, 0);
+        IntBloomierFilter<Integer> expected = new IntBloomierFilter<Integer>(map, 1300, 3, 41, oam);
+
+        IntBloomierFilter<Integer> built = builder.build(map, 1300, 3, 41, 0);
+        assertEquals(expected.getHashSeed(), built.getHashSeed());
+        assertArrayEquals(expected.getFlatTable(), built.getFlatTable());
+    }
+
+    @Test
+    public void reuse() throws TimeoutException {
+        BloomierBuilder<Integer, Integer> builder;
+        builder = new BloomierBuilder<Integer, Integer>(Integer.class, HashFamilies.MURMUR3);
+
+        // Growing, shrinking and changing shape between builds
+        int[][] shapes = { { 100, 3 }, { 2000, 4 }, { 10, 3 }, { 1000, 3 } };
+        for (int[] shape: shapes) {
+            Map<Integer, Integer> current = new HashMap<Integer, Integer>();
+            for (int i = 0; i < shape[0]; i++) {
+                current.put(i, i % 100);
+            }
+
+            int m = (int) (shape[0] * 1.5) + 8;
+            ImmutableBloomierFilter<Integer, Integer> filter;
+            filter = builder.build(current, m, shape[1], 32, 10000, shape[0]);
+            for (int i = 0; i < shape[0]; i++) {
+                assertEquals(current.get(i), filter.get(i));
+            }
+        }
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void timeout() throws TimeoutException {
+        // k = 4 at one slot per key never peels
+        new IntBloomierBuilder<Integer>(HashFamilies.MURMUR3).build(map, 1000, 4, 41, 100, 0);
+    }
+
+    @Test
+    public void stash() {
+        IntBloomierBuilder<Integer> builder = new IntBloomierBuilder<Integer>(HashFamilies.MURMUR3);
+        builder.setMaxStashSize(map.size());
+
+        // Well below the k = 3 threshold, so the first seed leaves a core behind
+        IntBloomierFilter<Integer> filter = builder.build(map, 1100, 3, 41, 7);
+        assertEquals(7, filter.getHashSeed());
+        assertTrue(filter.getStash().size() > 0);
+
+        Integer[] keys = new Integer[map.size() + 1];
+        for (int i = 0; i < map.size(); i++) {
+            assertEquals(map.get(i), filter.get(i));
+            keys[i] = i;
+        }
+        keys[map.size()] = -1;
+        assertNull(filter.get(-1));
+
+        int[] values = new int[keys.length];
+        long[] missing = MissingBitmap.create(keys.length);
+        assertEquals(map.size(), filter.getAll(keys, values, missing));
+        for (int i = 0; i < map.size(); i++) {
+            assertEquals(map.get(i).intValue(), values[i]);
+        }
+        assertTrue(MissingBitmap.isMissing(missing, map.size()));
+    }
+
+    @Test
+    public void rebuildGarbage() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        IntBloomierBuilder<Integer> builder = new IntBloomierBuilder<Integer>(HashFamilies.MURMUR3);
+        BloomierParameters parameters = BloomierParameters.plan(map.size(), Integer.SIZE,
+                                                                1.0 / (1 << 9));
+        for (int i = 0; i < REBUILDS; i++) {
+            builder.build(map, parameters, i); // warm up
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        IntBloomierFilter<Integer> filter = null;
+        for (int i = 0; i < REBUILDS; i++) {
+            filter = builder.build(map, parameters, i);
+        }
+        long perBuild = (threads.getThreadAllocatedBytes(thread) - before) / REBUILDS;
+
+        // Beyond the table, only the filter, its hashers and the map's iterator
+        long tableBytes = ImmutableBloomierFilter.getFlatTableLength(parameters.getM(),
+                                                                     parameters.getQ());
+        assertTrue(perBuild + " bytes per build", perBuild < tableBytes + 1024);
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(map.get(i), filter.get(i));
+        }
+        assertNull(filter.get(-1));
+    }
+}
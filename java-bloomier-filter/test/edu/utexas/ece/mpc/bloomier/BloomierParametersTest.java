@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+
+public class BloomierParametersTest {
+
+    @Test
+    public void checkBits() {
+        assertEquals(41, BloomierParameters.plan(1000, 32, 1.0 / 512).getQ());
+        assertEquals(42, BloomierParameters.plan(1000, 32, 1.0 / 513).getQ());
+        assertEquals(32, BloomierParameters.plan(1000, 32, 1).getQ());
+        assertEquals(1.0 / 512, BloomierParameters.plan(1000, 32, 0.002).getFalsePositiveRate(),
+                     0);
+    }
+
+    @Test
+    public void peelingThreshold() {
+        // Big key sets need more than 1.222 slots per key, but not much more (smaller ones can peel
+        // with fewer, given enough attempts)
+        for (int n = 100000; n <= 100000000; n *= 10) {
+            BloomierParameters parameters = BloomierParameters.plan(n, 32, 1.0 / 512, 16);
+            assertEquals(3, parameters.getK());
+            assertTrue(parameters.getM() >= 1.222 * n);
+            assertTrue(parameters.getM() <= 1.25 * n);
+        }
+    }
+
+    @Test
+    public void attemptBudget() {
+        // A bigger budget never plans a bigger table
+        for (int n = 1; n <= 100000; n = n * 3 + 1) {
+            int m = Integer.MAX_VALUE;
+            for (double attempts = 1; attempts <= 32; attempts *= 2) {
+                BloomierParameters parameters = BloomierParameters.plan(n, 32, 0.01, attempts);
+                assertTrue(parameters.getExpectedAttempts() <= Math.max(attempts, 1.1));
+                assertTrue(parameters.getM() <= m);
+                m = parameters.getM();
+            }
+        }
+    }
+
+    @Test
+    public void plannedFilter() throws Exception {
+        Map<Integer, Integer> map = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 5000; i++) {
+            map.put(i, i);
+        }
+
+        BloomierParameters parameters = BloomierParameters.plan(map.size(), Integer.SIZE,
+                                                                1.0 / 256);
+        IntBloomierFilter<Integer> uut = new IntBloomierFilter<Integer>(map, parameters,
+                                                                        HashFamilies.MURMUR3,
+                                                                        KeyFunnels.DEFAULT, 0);
+        assertEquals(parameters.getM(), uut.getM());
+        assertEquals(parameters.getTableBytes(), uut.getFlatTable().length);
+        for (int i = 0; i < map.size(); i++) {
+            assertEquals(i, uut.getInt(i, -1));
+        }
+
+        int falsePositives = 0;
+        for (int i = map.size(); i < map.size() + 100000; i++) {
+            if (uut.containsKey(i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2 * 100000 / 256);
+    }
+
+    @Test
+    public void retrievalOnly() {
+        Map<Integer, Integer> map = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, -i);
+        }
+
+        BloomierParameters parameters = BloomierParameters.plan(map.size(), Integer.SIZE,
+                                                                BloomierParameters.RETRIEVAL_ONLY);
+        assertEquals(Integer.SIZE, parameters.getQ());
+        IntBloomierFilter<Integer> uut = new IntBloomierFilter<Integer>(map, parameters,
+                                                                        HashFamilies.MURMUR3,
+                                                                        KeyFunnels.DEFAULT, 0);
+        for (int i = 0; i < map.size(); i++) {
+            assertEquals(-i, uut.getInt(i, 1));
+        }
+        assertTrue(uut.containsKey(-1)); // Nothing is ever rejected
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidFalsePositiveRate() {
+        BloomierParameters.plan(1000, 32, 0);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+
+// Many threads reading one filter, with no locking
+public class ConcurrentLookupTest {
+    private static final int KEYS = 5000;
+    private static final int ROUNDS = 20;
+
+    int threads;
+    ExecutorService executor;
+    Map<Integer, Integer> map;
+    Integer[] keys;
+
+    @Before
+    public void setUp() {
+        threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        executor = Executors.newFixedThreadPool(threads);
+
+        map = new HashMap<Integer, Integer>();
+        for (int i = 0; i < KEYS; i++) {
+            map.put(i, i * 7919); // values big enough to need multi-byte kryo encodings
+        }
+
+        // Members and non members
+        keys = new Integer[2 * KEYS];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void kryoFilter() throws Exception {
+        ImmutableBloomierFilter<Integer, Integer> filter;
+        filter = new BloomierBuilder<Integer, Integer>(Integer.class, HashFamilies.MD5)
+                .build(map, 2 * KEYS, 3, 48, 0);
+        stress(filter, threads);
+    }
+
+    @Test
+    public void intFilter() throws Exception {
+        IntBloomierFilter<Integer> filter;
+        filter = new IntBloomierBuilder<Integer>(HashFamilies.MURMUR3).build(map, 2 * KEYS, 3, 48,
+                                                                             0);
+        stress(filter, threads);
+    }
+
+    @Test
+    public void throughputScales() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        Assume.assumeTrue(cores >= 2);
+
+        IntBloomierFilter<Integer> filter;
+        filter = new IntBloomierBuilder<Integer>(HashFamilies.MURMUR3).build(map, 2 * KEYS, 3, 48,
+                                                                             0);
+        stress(filter, cores); // warm up
+
+        long single = stress(filter, 1);
+        long parallel = stress(filter, cores);
+
+        // Each run does the same work per thread, so with no shared locks running on every core
+        // should take about as long as running on one; allow plenty of slack for busy machines
+        assertTrue("1 thread: " + single + "ns, " + cores + " threads: " + parallel + "ns",
+                   parallel < 2 * single);
+    }
+
+    // Runs ROUNDS passes over every key on each of n threads at once, checking every result;
+    // returns the elapsed time
+    private long stress(final ImmutableBloomierFilter<Integer, Integer> filter, int n)
+            throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for (int t = 0; t < n; t++) {
+            final int offset = t * 997; // threads walk the keys out of step
+            results.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    start.await();
+
+                    int found = 0;
+                    for (int round = 0; round < ROUNDS; round++) {
+                        for (int i = 0; i < keys.length; i++) {
+                            Integer key = keys[(i + offset) % keys.length];
+                            Integer value = filter.get(key);
+                            if (key < KEYS) {
+                                assertEquals(map.get(key), value);
+                                found++;
+                            }
+                        }
+                    }
+                    return found;
+                }
+            }));
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<Integer> result: results) {
+            assertEquals(ROUNDS * KEYS, result.get().intValue());
+        }
+        return System.nanoTime() - begin;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+import edu.utexas.ece.mpc.bloomier.internal.BitPackedTable;
+import edu.utexas.ece.mpc.bloomier.internal.DictionaryValueCodec;
+import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatch;
+import edu.utexas.ece.mpc.bloomier.internal.OverflowStash;
+
+public class DictionaryBloomierFilterTest {
+    Map<Integer, Integer> map;
+    DictionaryBloomierFilter<Integer> uut;
+
+    @Before
+    public void setUp() {
+        map = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, (i % 5) * 1000003 - 7);
+        }
+
+        // 5 values index in 3 bits, leaving 9 fingerprint bits; built through the order and
+        // matching search so builder() can check the builder against it
+        OrderAndMatch<Integer> oam;
+        oam = ImmutableBloomierFilter.findWithoutTimeout(map, 1300, 3, 12, HashFamilies.MURMUR3,
+                                                         KeyFunnels.DEFAULT, 0);
+        uut = new DictionaryBloomierFilter<Integer>(map, 1300, 3, 12,
+                                                    DictionaryValueCodec.forValues(map.values()),
+                                                    oam);
+    }
+
+    @Test
+    public void members() {
+        assertEquals(5, uut.getDictionary().length);
+        assertEquals(9, uut.getFingerprintBits());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(map.get(i), uut.get(i));
+        }
+    }
+
+    @Test
+    public void falsePositiveRate() {
+        int falsePositives = 0;
+        for (int i = 1000; i < 101000; i++) {
+            if (uut.get(i) != null) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2 * 100000 / 512);
+    }
+
+    @Test
+    public void tableRoundTrip() {
+        DictionaryValueCodec codec = new DictionaryValueCodec(uut.getDictionary());
+        DictionaryBloomierFilter<Integer> copy;
+        copy = new DictionaryBloomierFilter<Integer>(codec, ImmutableBloomierFilterTest.hasher(uut),
+                                                     new BitPackedTable(uut.getM(), uut.getQ(),
+                                                                        uut.getFlatTable()),
+                                                     OverflowStash.<Integer> empty());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(map.get(i), copy.get(i));
+        }
+    }
+
+    @Test
+    public void builder() {
+        DictionaryBloomierBuilder<Integer> builder;
+        builder = new DictionaryBloomierBuilder<Integer>(HashFamilies.MURMUR3, KeyFunnels.DEFAULT);
+        DictionaryBloomierFilter<Integer> built = builder.build(map, 1300, 3, 12, 0);
+        assertEquals(uut.getHashSeed(), built.getHashSeed());
+        assertArrayEquals(uut.getFlatTable(), built.getFlatTable());
+
+        // The next build brings its own dictionary
+        map.put(5000, 42);
+        BloomierParameters parameters = BloomierParameters.plan(map.size(),
+                                                                DictionaryValueCodec.indexBitsFor(6),
+                                                                1.0 / 512);
+        built = builder.build(map, parameters, 0);
+        assertEquals(6, built.getDictionary().length);
+        for (Map.Entry<Integer, Integer> e: map.entrySet()) {
+            assertEquals(e.getValue(), built.get(e.getKey()));
+        }
+    }
+
+    @Test
+    public void indexBits() {
+        assertEquals(1, DictionaryValueCodec.indexBitsFor(0));
+        assertEquals(1, DictionaryValueCodec.indexBitsFor(1));
+        assertEquals(1, DictionaryValueCodec.indexBitsFor(2));
+        assertEquals(2, DictionaryValueCodec.indexBitsFor(3));
+        assertEquals(8, DictionaryValueCodec.indexBitsFor(256));
+        assertEquals(9, DictionaryValueCodec.indexBitsFor(257));
+    }
+}
@@ -21,13 +21,18 @@ import org.junit.Before;
 import org.junit.Test;
 
 import edu.utexas.ece.mpc.bloomier.ImmutableBloomierFilter;
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.internal.BitPackedTable;
+import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.OverflowStash;
 
 public class ImmutableBloomierFilterTest {
     ImmutableBloomierFilter<Integer, Integer> uut;
+    Map<Integer, Integer> map;
 
     @Before
     public void setUp() throws Exception {
-        Map<Integer, Integer> map = new HashMap<Integer, Integer>();
+        map = new HashMap<Integer, Integer>();
 
         for (int i = 0; i < 1000; i++) {
             map.put(i, i);
@@ -48,4 +53,133 @@ public class ImmutableBloomierFilterTest {
         Assert.assertNull(result);
     }
 
+    @Test
+    public void getAll() {
+        Integer[] keys = new Integer[] { 1, 2000, 999, 3000 };
+        Integer[] values = new Integer[keys.length];
+        long[] missing = MissingBitmap.create(keys.length);
+
+        assertEquals(2, uut.getAll(keys, values, missing));
+        assertEquals(Integer.valueOf(1), values[0]);
+        Assert.assertNull(values[1]);
+        Assert.assertTrue(MissingBitmap.isMissing(missing, 1));
+        Assert.assertFalse(MissingBitmap.isMissing(missing, 2));
+        assertEquals(Integer.valueOf(999), values[2]);
+        Assert.assertTrue(MissingBitmap.isMissing(missing, 3));
+    }
+
+    @Test
+    public void tableRoundTrip() {
+        BitPackedTable table = new BitPackedTable(uut.getM(), uut.getQ(), uut.getFlatTable());
+        ImmutableBloomierFilter<Integer, Integer> fromFlat;
+        fromFlat = new ImmutableBloomierFilter<Integer, Integer>(uut.getCodec(), hasher(uut), table,
+                                                                 0,
+                                                                 OverflowStash.<Integer> empty());
+        ImmutableBloomierFilter<Integer, Integer> fromEntries;
+        fromEntries = new ImmutableBloomierFilter<Integer, Integer>(uut.getM(), uut.getK(),
+                                                                    uut.getQ(), Integer.class,
+                                                                    uut.getHashSeed(),
+                                                                    uut.getTable());
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), fromFlat.get(i));
+            assertEquals(Integer.valueOf(i), fromEntries.get(i));
+        }
+    }
+
+    @Test
+    public void bitPackedEntries() throws Exception {
+        ImmutableBloomierFilter<Integer, Integer> packed;
+        packed = new ImmutableBloomierFilter<Integer, Integer>(map, 1300, 3, 41, Integer.class,
+                                                               10000);
+
+        assertEquals((1300 * 41 + 7) / 8, packed.getFlatTable().length);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), packed.get(i));
+        }
+    }
+
+    @Test
+    public void murmur3HashFamily() throws Exception {
+        ImmutableBloomierFilter<Integer, Integer> murmur;
+        murmur = new BloomierBuilder<Integer, Integer>(Integer.class, HashFamilies.MURMUR3)
+                .build(map, map.keySet().size() * 10, 10, 32, 10000, 0);
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), murmur.get(i));
+        }
+        // Which non members slip through depends on the hash; kryo values with q=32 let through a
+        // few percent
+        int falsePositives = 0;
+        for (int i = 2000; i < 3000; i++) {
+            if (murmur.get(i) != null) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue(falsePositives < 100);
+        assertEquals(HashFamilies.MURMUR3, murmur.getHashFamily());
+    }
+
+    @Test
+    public void sharedState() throws Exception {
+        // Filters of the same value type share a codec; copies also share the hasher and table
+        Map<Integer, Integer> other = new HashMap<Integer, Integer>();
+        other.put(-1, 1);
+        ImmutableBloomierFilter<Integer, Integer> otherFilter;
+        otherFilter = new ImmutableBloomierFilter<Integer, Integer>(other, 10, 2, 32, Integer.class,
+                                                                    10000);
+        Assert.assertSame(uut.getCodec(), otherFilter.getCodec());
+
+        ImmutableBloomierFilter<Integer, Integer> copy;
+        copy = new ImmutableBloomierFilter<Integer, Integer>(uut);
+        Assert.assertSame(uut.getCodec(), copy.getCodec());
+        Assert.assertSame(uut.hasher, copy.hasher);
+        Assert.assertSame(uut.table, copy.table);
+        assertEquals(uut.get(1), copy.get(1));
+    }
+
+    @Test
+    public void fingerprint() throws Exception {
+        // Values get the first 40 bits and the fingerprint the last 8, so at most 1 in 256 non
+        // members get as far as decoding
+        ImmutableBloomierFilter<Integer, Integer> fingerprinted;
+        fingerprinted = new BloomierBuilder<Integer, Integer>(Integer.class, HashFamilies.MURMUR3)
+                .build(map, 1300, 3, 48, 8, 10000, 0);
+        assertEquals(8, fingerprinted.getFingerprintBits());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), fingerprinted.get(i));
+        }
+
+        int falsePositives = 0;
+        for (int i = 1000; i < 101000; i++) {
+            if (fingerprinted.get(i) != null) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue(falsePositives < 2 * 100000 / 256);
+
+        BitPackedTable table = new BitPackedTable(1300, 48, fingerprinted.getFlatTable());
+        ImmutableBloomierFilter<Integer, Integer> fromFlat;
+        fromFlat = new ImmutableBloomierFilter<Integer, Integer>(fingerprinted.getCodec(),
+                                                                 hasher(fingerprinted), table, 8,
+                                                                 OverflowStash.<Integer> empty());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), fromFlat.get(i));
+        }
+        assertEquals(8, new ImmutableBloomierFilter<Integer, Integer>(fingerprinted)
+                .getFingerprintBits());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fingerprintTooWide() throws Exception {
+        new BloomierBuilder<Integer, Integer>(Integer.class, HashFamilies.MURMUR3)
+                .build(map, 1300, 3, 48, 48, 10000, 0);
+    }
+
+    // A hasher like filter's, made from what a received or stored filter records
+    static <K> BloomierHasher<K> hasher(ImmutableBloomierFilter<K, ?> filter) {
+        return new BloomierHasher<K>(filter.getHashFamily(), filter.getKeyFunnel(),
+                                     filter.getHashSeed(), filter.getM(), filter.getK(),
+                                     filter.getQ());
+    }
 }
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+import edu.utexas.ece.mpc.bloomier.internal.BitPackedTable;
+import edu.utexas.ece.mpc.bloomier.internal.ByteBufferPackedTable;
+import edu.utexas.ece.mpc.bloomier.internal.OverflowStash;
+
+public class IntBloomierFilterTest {
+    IntBloomierFilter<Integer> uut;
+    Map<Integer, Integer> map;
+
+    @Before
+    public void setUp() throws Exception {
+        map = new HashMap<Integer, Integer>();
+
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, i * 31 - 5000); // include negative values
+        }
+
+        uut = new IntBloomierBuilder<Integer>(HashFamilies.MURMUR3).build(map, 1300, 3, 41, 10000,
+                                                                          0);
+    }
+
+    @Test
+    public void member() {
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(map.get(i), uut.get(i));
+            assertEquals(map.get(i).intValue(), uut.getInt(i, Integer.MIN_VALUE));
+            assertTrue(uut.containsKey(i));
+        }
+    }
+
+    @Test
+    public void notMember() {
+        Assert.assertNull(uut.get(-1));
+        assertEquals(Integer.MIN_VALUE, uut.getInt(-1, Integer.MIN_VALUE));
+        assertFalse(uut.containsKey(-1));
+    }
+
+    @Test
+    public void getAll() {
+        // Interleave members and non members across several bitmap words
+        Integer[] keys = new Integer[300];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = (i % 2 == 0) ? i : -i;
+        }
+        int[] values = new int[keys.length];
+        long[] missing = MissingBitmap.create(keys.length);
+
+        int found = uut.getAll(keys, values, missing);
+
+        // Non members are only found as false positives (about 1 in 512)
+        int falsePositives = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i % 2 == 0) {
+                assertFalse(MissingBitmap.isMissing(missing, i));
+                assertEquals(map.get(i).intValue(), values[i]);
+            } else if (!MissingBitmap.isMissing(missing, i)) {
+                assertEquals(uut.get(keys[i]).intValue(), values[i]);
+                falsePositives++;
+            }
+        }
+        assertEquals(keys.length / 2 + falsePositives, found);
+        assertTrue(falsePositives < 5);
+
+        int[] fromCollection = new int[1000];
+        assertEquals(1000, uut.getAll(map.keySet(), fromCollection, MissingBitmap.create(1000)));
+        int i = 0;
+        for (Integer key: map.keySet()) {
+            assertEquals(map.get(key).intValue(), fromCollection[i++]);
+        }
+    }
+
+    @Test
+    public void falsePositiveRate() {
+        int falsePositives = 0;
+        for (int i = 1000; i < 101000; i++) {
+            if (uut.containsKey(i)) {
+                falsePositives++;
+            }
+        }
+
+        // q - 32 = 9 check bits should let through about 1 in 512
+        Assert.assertTrue(falsePositives < 100000 / 256);
+    }
+
+    @Test
+    public void tableRoundTrip() {
+        IntBloomierFilter<Integer> copy;
+        copy = new IntBloomierFilter<Integer>(ImmutableBloomierFilterTest.hasher(uut),
+                                              new BitPackedTable(uut.getM(), uut.getQ(),
+                                                                 uut.getFlatTable()),
+                                              OverflowStash.<Integer> empty());
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(map.get(i), copy.get(i));
+        }
+    }
+
+    @Test
+    public void genericLookupAgrees() {
+        // The base class lookup (through the codec) must agree with the fast path
+        ImmutableBloomierFilter<Integer, Integer> generic;
+        generic = new ImmutableBloomierFilter<Integer, Integer>(uut.getCodec(), uut.hasher,
+                                                                uut.getPackedTable(), 0,
+                                                                OverflowStash.<Integer> empty());
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(map.get(i), generic.get(i));
+        }
+    }
+
+    @Test
+    public void longValues() {
+        Map<Integer, Long> longMap = new HashMap<Integer, Long>();
+        for (int i = 0; i < 1000; i++) {
+            longMap.put(i, Long.MIN_VALUE + i * 0x123456789L);
+        }
+
+        LongBloomierFilter<Integer> longs;
+        longs = new LongBloomierFilter<Integer>(longMap, 1300, 3, 80, HashFamilies.MURMUR3, 0);
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(longMap.get(i), longs.get(i));
+            assertEquals(longMap.get(i).longValue(), longs.getLong(i, 0));
+        }
+        Assert.assertNull(longs.get(-1));
+
+        Integer[] keys = new Integer[] { 5, -5, 999 };
+        long[] values = new long[keys.length];
+        long[] missing = MissingBitmap.create(keys.length);
+        assertEquals(2, longs.getAll(keys, values, missing));
+        assertEquals(longMap.get(5).longValue(), values[0]);
+        assertTrue(MissingBitmap.isMissing(missing, 1));
+        assertEquals(longMap.get(999).longValue(), values[2]);
+    }
+
+    @Test
+    public void bufferView() {
+        // The table sits in the middle of a larger buffer, as it would in a received packet
+        byte[] table = uut.getFlatTable();
+        ByteBuffer buffer = ByteBuffer.allocate(table.length + 20);
+        buffer.position(10);
+        buffer.put(table);
+        buffer.position(10);
+
+        IntBloomierFilter<Integer> view;
+        view = new IntBloomierFilter<Integer>(ImmutableBloomierFilterTest.hasher(uut),
+                                              ByteBufferPackedTable.slice(buffer, 1300, 41),
+                                              OverflowStash.<Integer> empty());
+        assertEquals(10, buffer.position());
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(map.get(i), view.get(i));
+        }
+        assertArrayEquals(table, view.getFlatTable());
+    }
+
+    @Test
+    public void collidingHashCodes() throws Exception {
+        // "Aa" and "BB" share a hash code, so every string made of them shares one too
+        Map<String, Integer> colliding = new HashMap<String, Integer>();
+        for (int i = 0; i < 64; i++) {
+            StringBuilder key = new StringBuilder();
+            for (int bit = 0; bit < 6; bit++) {
+                key.append((i & (1 << bit)) == 0 ? "Aa" : "BB");
+            }
+            colliding.put(key.toString(), i);
+        }
+
+        try {
+            new IntBloomierBuilder<String>(HashFamilies.MURMUR3).build(colliding, 100, 3, 41, 100,
+                                                                       0);
+            Assert.fail("Keys with equal hash codes can't be separated by hashing hash codes");
+        } catch (TimeoutException e) {
+            // Expected
+        }
+
+        BloomierParameters parameters = BloomierParameters.plan(colliding.size(), Integer.SIZE,
+                                                                1.0 / (1 << 9));
+        IntBloomierFilter<String> strings;
+        strings = new IntBloomierFilter<String>(colliding, parameters, HashFamilies.MURMUR3,
+                                                KeyFunnels.STRING, 0);
+        for (Map.Entry<String, Integer> entry: colliding.entrySet()) {
+            assertEquals(entry.getValue(), strings.get(entry.getKey()));
+        }
+        assertEquals(KeyFunnels.STRING, strings.getKeyFunnel());
+    }
+
+    @Test
+    public void integerFunnelMatchesHashCodes() {
+        // An Integer's hash code is its value, so both encode Integer keys identically
+        BloomierParameters parameters = BloomierParameters.plan(1000, Integer.SIZE, 1.0 / (1 << 9));
+        IntBloomierFilter<Integer> funneled;
+        funneled = new IntBloomierFilter<Integer>(map, parameters, HashFamilies.MURMUR3,
+                                                  KeyFunnels.INTEGER, 0);
+        IntBloomierFilter<Integer> hashCodes;
+        hashCodes = new IntBloomierFilter<Integer>(map, parameters, HashFamilies.MURMUR3,
+                                                   KeyFunnels.DEFAULT, 0);
+        assertArrayEquals(hashCodes.getFlatTable(), funneled.getFlatTable());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void widthTooSmall() throws Exception {
+        new IntBloomierBuilder<Integer>(HashFamilies.MURMUR3).build(map, 1300, 3, 31, 10000, 0);
+    }
+}
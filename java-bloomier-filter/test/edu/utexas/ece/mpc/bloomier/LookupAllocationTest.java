@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.hash.HashFamily;
+
+// Lookups should be garbage free once the thread's scratch buffers exist
+public class LookupAllocationTest {
+    private static final int LOOKUPS = 10000;
+
+    com.sun.management.ThreadMXBean threads;
+    Map<Integer, Integer> map;
+    Integer[] keys;
+
+    @Before
+    public void setUp() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        map = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, i % 100); // small enough to come out of the Integer cache
+        }
+
+        // Boxed up front so the loops don't allocate keys
+        keys = new Integer[2000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i;
+        }
+    }
+
+    @Test
+    public void intFilterLookups() {
+        IntBloomierFilter<Integer> filter;
+        filter = new IntBloomierBuilder<Integer>(HashFamilies.MURMUR3).build(map, 1300, 3, 41, 0);
+
+        for (int i = 0; i < LOOKUPS; i++) {
+            filter.getInt(keys[i % keys.length], -1); // warm up
+        }
+
+        int found = 0;
+        long before = allocatedBytes();
+        for (int i = 0; i < LOOKUPS; i++) {
+            if (filter.getInt(keys[i % keys.length], -1) != -1) { // members and non members
+                found++;
+            }
+        }
+        long allocated = allocatedBytes() - before;
+
+        assertEquals(0, allocated);
+        assertTrue(found >= LOOKUPS / 2);
+    }
+
+    @Test
+    public void genericMemberLookups() {
+        for (HashFamily family: new HashFamily[] { HashFamilies.MD5, HashFamilies.MURMUR3 }) {
+            ImmutableBloomierFilter<Integer, Integer> filter;
+            filter = new BloomierBuilder<Integer, Integer>(Integer.class, family).build(map, 1300,
+                                                                                        3, 32, 0);
+
+            for (int i = 0; i < LOOKUPS; i++) {
+                filter.get(keys[i % 1000]); // warm up
+            }
+
+            long before = allocatedBytes();
+            for (int i = 0; i < LOOKUPS; i++) {
+                filter.get(keys[i % 1000]);
+            }
+            long allocated = allocatedBytes() - before;
+
+            // Kryo's decoding occasionally allocates internally, so only require that lookups
+            // don't allocate on average
+            assertEquals(family.getName(), 0, allocated / LOOKUPS);
+        }
+    }
+
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
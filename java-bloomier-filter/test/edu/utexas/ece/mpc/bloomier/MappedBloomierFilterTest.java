@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+package edu.utexas.ece.mpc.bloomier;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+
+public class MappedBloomierFilterTest {
+    private File file;
+    private MappedBloomierFilter<Integer, Integer> uut;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<Integer, Integer> map = new HashMap<Integer, Integer>();
+
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, i);
+        }
+
+        ImmutableBloomierFilter<Integer, Integer> filter;
+        filter = new BloomierBuilder<Integer, Integer>(Integer.class, HashFamilies.MURMUR3)
+                .build(map, 1300, 3, 41, 10000, 0);
+
+        file = File.createTempFile("bloomier", ".blmr");
+        BloomierFilterFile.write(filter, file);
+
+        uut = new MappedBloomierFilter<Integer, Integer>(file, Integer.class);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void header() {
+        Assert.assertEquals(1300, uut.getM());
+        Assert.assertEquals(3, uut.getK());
+        Assert.assertEquals(41, uut.getQ());
+        Assert.assertEquals(HashFamilies.MURMUR3, uut.getHashFamily());
+        Assert.assertEquals(BloomierFilterFile.HEADER_SIZE + (1300 * 41 + 7) / 8, file.length());
+    }
+
+    @Test
+    public void member() {
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(Integer.valueOf(i), uut.get(i));
+        }
+    }
+
+    @Test
+    public void notMember() {
+        Assert.assertNull(uut.get(2000));
+    }
+
+    @Test
+    public void fingerprint() throws Exception {
+        Map<Integer, Integer> map = new HashMap<Integer, Integer>();
+        map.put(1, 1);
+        ImmutableBloomierFilter<Integer, Integer> filter;
+        filter = new BloomierBuilder<Integer, Integer>(Integer.class, HashFamilies.MURMUR3)
+                .build(map, 10, 3, 48, 16, 10000, 0);
+        BloomierFilterFile.write(filter, file);
+
+        MappedBloomierFilter<Integer, Integer> mapped;
+        mapped = new MappedBloomierFilter<Integer, Integer>(file, Integer.class);
+        Assert.assertEquals(16, mapped.getFingerprintBits());
+        Assert.assertEquals(Integer.valueOf(1), mapped.get(1));
+    }
+
+    @Test
+    public void keyFunnel() throws Exception {
+        Map<Long, Integer> map = new HashMap<Long, Integer>();
+        for (long i = 0; i < 100; i++) {
+            map.put(i << 32, (int) i); // every key has hash code 0
+        }
+        ImmutableBloomierFilter<Long, Integer> filter;
+        filter = new BloomierBuilder<Long, Integer>(Integer.class, HashFamilies.MURMUR3,
+                                                    KeyFunnels.LONG).build(map, 130, 3, 41, 10000,
+                                                                           0);
+        BloomierFilterFile.write(filter, file);
+
+        MappedBloomierFilter<Long, Integer> mapped;
+        mapped = new MappedBloomierFilter<Long, Integer>(file, Integer.class);
+        Assert.assertSame(KeyFunnels.LONG, mapped.getKeyFunnel());
+        for (long i = 0; i < 100; i++) {
+            Assert.assertEquals(Integer.valueOf((int) i), mapped.get(i << 32));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void customKeyFunnel() throws Exception {
+        KeyFunnel<Integer> funnel = new KeyFunnel<Integer>() {
+
+            @Override
+            public int getId() {
+                return 0; // claims HASH_CODE's id
+            }
+
+            @Override
+            public String getName() {
+                return "custom";
+            }
+
+            @Override
+            public int getMaxLength(Integer key) {
+                return 1;
+            }
+
+            @Override
+            public int encode(Integer key, byte[] buffer) {
+                buffer[0] = key.byteValue();
+                return 1;
+            }
+        };
+        Map<Integer, Integer> map = new HashMap<Integer, Integer>();
+        map.put(1, 1);
+        ImmutableBloomierFilter<Integer, Integer> filter;
+        filter = new BloomierBuilder<Integer, Integer>(Integer.class, HashFamilies.MURMUR3,
+                                                       funnel).build(map, 10, 3, 41, 10000, 0);
+        BloomierFilterFile.write(filter, file);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void intCodec() throws Exception {
+        Map<Integer, Integer> map = new HashMap<Integer, Integer>();
+        map.put(1, 1);
+        IntBloomierFilter<Integer> filter;
+        filter = new IntBloomierBuilder<Integer>(HashFamilies.MURMUR3).build(map, 10, 3, 41, 10000,
+                                                                            0);
+        BloomierFilterFile.write(filter, file);
+    }
+}
@@ -18,6 +18,8 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+
 public class MutableBloomierFilterTest {
 
     private MutableBloomierFilter<Integer, Integer> uut;
@@ -51,6 +53,76 @@ public class MutableBloomierFilterTest {
         Assert.assertEquals(Integer.valueOf(10), uut.get(500));
     }
 
+    @Test
+    public void getAll() {
+        uut.set(500, 10);
+
+        Integer[] keys = new Integer[] { 500, 2000, 1 };
+        Integer[] values = new Integer[keys.length];
+        long[] missing = MissingBitmap.create(keys.length);
+
+        Assert.assertEquals(2, uut.getAll(keys, values, missing));
+        Assert.assertEquals(Integer.valueOf(10), values[0]);
+        Assert.assertTrue(MissingBitmap.isMissing(missing, 1));
+        Assert.assertEquals(Integer.valueOf(1), values[2]);
+    }
+
+    @Test
+    public void insert() throws Exception {
+        for (int i = 1000; i < 3000; i++) {
+            uut.put(i, -i);
+        }
+
+        Assert.assertTrue(uut.getRebuildCount() > 0);
+        Assert.assertEquals(3000, uut.size());
+        for (int i = 0; i < 3000; i++) {
+            Assert.assertEquals(Integer.valueOf(i < 1000 ? i : -i), uut.get(i));
+        }
+
+        uut.set(2500, 7); // inserted keys can be modified like the original ones
+        Assert.assertEquals(Integer.valueOf(7), uut.get(2500));
+    }
+
+    @Test
+    public void remove() throws Exception {
+        for (int i = 0; i < 1000; i += 2) {
+            Assert.assertEquals(Integer.valueOf(i), uut.remove(i));
+        }
+
+        Assert.assertEquals(500, uut.size());
+        for (int i = 0; i < 1000; i++) {
+            if (i % 2 == 0) {
+                Assert.assertNull(uut.get(i));
+                Assert.assertFalse(uut.containsKey(i));
+            } else {
+                Assert.assertEquals(Integer.valueOf(i), uut.get(i));
+            }
+        }
+        Assert.assertNull(uut.remove(2000));
+
+        uut.put(4, 40); // and back again
+        Assert.assertEquals(Integer.valueOf(40), uut.get(4));
+    }
+
+    @Test
+    public void buckets() throws Exception {
+        Map<Integer, Integer> map = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 5000; i++) {
+            map.put(i, i);
+        }
+
+        MutableBloomierFilter<Integer, Integer> bucketed;
+        bucketed = new MutableBloomierFilter<Integer, Integer>(map, 6500, 3, 32,
+                                                               HashFamilies.MURMUR3, 10000, 8);
+        Assert.assertEquals(8, bucketed.getBucketCount());
+
+        bucketed.put(5000, 5000);
+        Assert.assertEquals(0, bucketed.getRebuildCount()); // stashed, not rebuilt
+        for (int i = 0; i <= 5000; i++) {
+            Assert.assertEquals(Integer.valueOf(i), bucketed.get(i));
+        }
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void illegalModify() {
         uut.set(2000, 10);
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+
+public class ShardedBloomierFilterTest {
+    ShardedBloomierFilter<Integer, Integer> uut;
+    Map<Integer, Integer> map;
+
+    @Before
+    public void setUp() throws Exception {
+        map = new HashMap<Integer, Integer>();
+
+        for (int i = 0; i < 20000; i++) {
+            map.put(i, i);
+        }
+
+        uut = new ShardedBloomierFilter<Integer, Integer>(map, 26000, 3, 40, 16, Integer.class,
+                                                          HashFamilies.MURMUR3, 10000, 0);
+    }
+
+    @Test
+    public void member() {
+        for (int i = 0; i < 20000; i++) {
+            assertEquals(Integer.valueOf(i), uut.get(i));
+        }
+    }
+
+    @Test
+    public void notMember() {
+        // Kryo's variable length encoding leaves few check bits for some garbage entries, so just
+        // expect non members to come back as such nearly always
+        int falsePositives = 0;
+        for (int i = 20000; i < 40000; i++) {
+            if (uut.get(i) != null) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue(falsePositives < 1000); // unsharded filters see about 3% here too
+    }
+
+    @Test
+    public void layout() {
+        int[] offsets = uut.getShardOffsets();
+
+        assertEquals(16, uut.getShardCount());
+        assertEquals(17, offsets.length);
+        for (int i = 0; i < 16; i++) {
+            Assert.assertTrue(offsets[i + 1] > offsets[i]);
+            assertEquals(0, offsets[i] % 8); // shards start on whole bytes
+        }
+        assertEquals(uut.getM(), offsets[16]);
+        Assert.assertTrue(uut.getM() >= 26000 && uut.getM() < 26000 + 16 * 8 + 16);
+        assertEquals((uut.getM() * 40 + 7) / 8, uut.getFlatTable().length);
+    }
+
+    @Test
+    public void partsRoundTrip() {
+        ShardedBloomierFilter<Integer, Integer> copy;
+        copy = new ShardedBloomierFilter<Integer, Integer>(uut.getK(), uut.getQ(), Integer.class,
+                                                           uut.getHashFamily(),
+                                                           uut.getShardSeeds(),
+                                                           uut.getShardOffsets(),
+                                                           uut.getFlatTable());
+
+        for (int i = 0; i < 20000; i++) {
+            assertEquals(Integer.valueOf(i), copy.get(i));
+        }
+    }
+
+    @Test
+    public void singleShard() throws Exception {
+        ShardedBloomierFilter<Integer, Integer> single;
+        single = new ShardedBloomierFilter<Integer, Integer>(map, 26000, 3, 40, 1, Integer.class,
+                                                             HashFamilies.MD5, 10000, 0);
+
+        assertEquals(26000, single.getM());
+        assertEquals(Integer.valueOf(12345), single.get(12345));
+    }
+
+    @Test
+    public void keyFunnel() throws Exception {
+        Map<Long, Integer> longs = new HashMap<Long, Integer>();
+        for (long i = 0; i < 1000; i++) {
+            longs.put(i << 32, (int) i); // every key has hash code 0
+        }
+        ShardedBloomierFilter<Long, Integer> filter;
+        filter = new ShardedBloomierFilter<Long, Integer>(longs, 1300, 3, 40, 4, Integer.class,
+                                                          HashFamilies.MURMUR3, KeyFunnels.LONG,
+                                                          10000, 0);
+
+        ShardedBloomierFilter<Long, Integer> copy;
+        copy = new ShardedBloomierFilter<Long, Integer>(filter.getK(), filter.getQ(),
+                                                        Integer.class, filter.getHashFamily(),
+                                                        filter.getKeyFunnel(),
+                                                        filter.getShardSeeds(),
+                                                        filter.getShardOffsets(),
+                                                        filter.getFlatTable());
+        for (long i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf((int) i), filter.get(i << 32));
+            assertEquals(Integer.valueOf((int) i), copy.get(i << 32));
+        }
+    }
+}
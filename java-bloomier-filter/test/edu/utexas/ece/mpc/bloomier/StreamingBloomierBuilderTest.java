@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.utexas.ece.mpc.bloomier.hash.HashFamilies;
+import edu.utexas.ece.mpc.bloomier.hash.KeyFunnels;
+
+public class StreamingBloomierBuilderTest {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void buildsInShards() throws Exception {
+        File dir = temp.newFolder();
+        StreamingBloomierBuilder<Integer, Integer> builder;
+        builder = new StreamingBloomierBuilder<Integer, Integer>(3, 40, 1.3, Integer.class,
+                                                                 HashFamilies.MURMUR3,
+                                                                 1024 * 1024, dir);
+
+        // Generated on the fly; never held as a map
+        ShardedBloomierFilter<Integer, Integer> filter = builder.build(entries(0, 50000), 10000, 0);
+
+        Assert.assertTrue(filter.getShardCount() > 1);
+        for (int i = 0; i < 50000; i++) {
+            assertEquals(Integer.valueOf(i * 3), filter.get(i));
+        }
+        assertEquals(0, dir.list().length); // spill files are cleaned up
+    }
+
+    @Test
+    public void keyFunnel() throws Exception {
+        StreamingBloomierBuilder<String, Integer> builder;
+        builder = new StreamingBloomierBuilder<String, Integer>(3, 40, 1.3, Integer.class,
+                                                                HashFamilies.MURMUR3,
+                                                                KeyFunnels.STRING, 64 * 1024,
+                                                                temp.newFolder());
+
+        // "Aa" and "BB" share a hash code, so only a whole-key funnel can tell them apart
+        Map<String, Integer> map = new HashMap<String, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            map.put("Aa" + i, i);
+            map.put("BB" + i, -i);
+        }
+        ShardedBloomierFilter<String, Integer> filter;
+        filter = builder.build(map.entrySet().iterator(), 10000, 0);
+
+        Assert.assertTrue(filter.getShardCount() > 1);
+        for (Map.Entry<String, Integer> entry: map.entrySet()) {
+            assertEquals(entry.getValue(), filter.get(entry.getKey()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void repeatedKeys() throws Exception {
+        StreamingBloomierBuilder<Integer, Integer> builder;
+        builder = new StreamingBloomierBuilder<Integer, Integer>(3, 40, 1.3, Integer.class,
+                                                                 HashFamilies.MURMUR3,
+                                                                 1024 * 1024, temp.newFolder());
+
+        final Iterator<Map.Entry<Integer, Integer>> first = entries(0, 100);
+        final Iterator<Map.Entry<Integer, Integer>> second = entries(50, 100);
+        builder.build(new Iterator<Map.Entry<Integer, Integer>>() {
+            @Override
+            public boolean hasNext() {
+                return first.hasNext() || second.hasNext();
+            }
+
+            @Override
+            public Map.Entry<Integer, Integer> next() {
+                return first.hasNext() ? first.next() : second.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        }, 10000, 0);
+    }
+
+    // Entries i -> 3i for i in [start, end)
+    private static Iterator<Map.Entry<Integer, Integer>> entries(final int start, final int end) {
+        return new Iterator<Map.Entry<Integer, Integer>>() {
+            int next = start;
+
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public Map.Entry<Integer, Integer> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int key = next++;
+                return new AbstractMap.SimpleImmutableEntry<Integer, Integer>(key, key * 3);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
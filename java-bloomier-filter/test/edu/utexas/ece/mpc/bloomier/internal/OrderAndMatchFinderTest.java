@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ * 
+ * All rights reserved.
+ * 
+ * See included LICENSE.txt for licensing details
+ * 
+ */
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OrderAndMatchFinderTest {
+    private Set<Integer> keys;
+
+    @Before
+    public void setUp() {
+        keys = new HashSet<Integer>();
+
+        for (int i = 0; i < 5000; i++) {
+            keys.add(i);
+        }
+    }
+
+    @Test
+    public void parallelLowestSeedMatchesSequential() throws Exception {
+        OrderAndMatch<Integer> sequential = new OrderAndMatchFinder<Integer>(keys, 6300, 3, 32, 0)
+                .find(10000);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            OrderAndMatchFinder<Integer> finder = new OrderAndMatchFinder<Integer>(keys, 6300, 3,
+                                                                                   32, 0);
+            OrderAndMatch<Integer> parallel = finder.findParallel(10000, pool, true);
+
+            Assert.assertEquals(sequential.getHashSeed(), parallel.getHashSeed());
+            Assert.assertEquals(sequential.getPi(), parallel.getPi());
+            Assert.assertEquals(sequential.getTau(), parallel.getTau());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelFirstSeed() throws Exception {
+        OrderAndMatchFinder<Integer> finder = new OrderAndMatchFinder<Integer>(keys, 6300, 3, 32);
+        OrderAndMatch<Integer> oam = finder.findParallel(10000, false);
+
+        Assert.assertTrue(finder.isFound());
+        Assert.assertEquals(keys.size(), oam.getPi().size());
+        Assert.assertEquals(keys, new HashSet<Integer>(oam.getPi()));
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void parallelTimeout() throws Exception {
+        // Far too few slots for the keys to ever be peeled
+        new OrderAndMatchFinder<Integer>(keys, 5000, 3, 32).findParallel(200, false);
+    }
+}